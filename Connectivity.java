@@ -0,0 +1,49 @@
+package ColoringBook.graphics;
+
+/**
+ * Defines which pixels are neighbors of each other when spreading a fill.
+ * FOUR only connects pixels sharing an edge: a fill cannot slip through a diagonal gap in
+ * an outline, and probes half as many neighbors. EIGHT also connects pixels sharing a corner.
+ */
+public enum Connectivity {
+    FOUR(
+        new int[] {1, 0, -1, 0},
+        new int[] {0, 1, 0, -1}),
+    EIGHT(
+        new int[] {1, 1, 0, -1, -1, -1, 0, 1},
+        new int[] {0, 1, 1, 1, 0, -1, -1, -1});
+
+    private final int[] _dx;
+    private final int[] _dy;
+
+    private Connectivity(int[] dx, int[] dy) {
+        _dx = dx;
+        _dy = dy;
+    }
+
+    /**
+     * Gets the number of neighbors of a pixel.
+     * @return 4 or 8.
+     */
+    public int size() {
+        return _dx.length;
+    }
+
+    /**
+     * Gets the x offset of the k-th neighbor of a pixel.
+     * @param k - the neighbor number, between 0 and size()-1.
+     * @return the offset to be added to the pixel x coordinate.
+     */
+    public int dx(int k) {
+        return _dx[k];
+    }
+
+    /**
+     * Gets the y offset of the k-th neighbor of a pixel.
+     * @param k - the neighbor number, between 0 and size()-1.
+     * @return the offset to be added to the pixel y coordinate.
+     */
+    public int dy(int k) {
+        return _dy[k];
+    }
+}
@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.imageio.ImageIO;
 
@@ -16,22 +17,53 @@ class DbgButton extends Canvas {
     };
     
     private static final long serialVersionUID = 1L;
+    // location of the button faces on the file system, when not found on the classpath.
+    private static final String RES_DIR = "ColoringBook/graphics/";
     private char _btnKey;
     private BufferedImage[] _btnFaces;
     private int _crtFace;
     
     public DbgButton(char btnKey, int xAnchor, int yAnchor, String... btnFaceFiles) throws IOException {
+        this(btnKey, xAnchor, yAnchor, loadFaces(btnFaceFiles));
+    }
+    
+    public DbgButton(char btnKey, int xAnchor, int yAnchor, BufferedImage... btnFaces) {
         _btnKey = btnKey;
-        _btnFaces = new BufferedImage[btnFaceFiles.length];
-        for(int i = 0; i < _btnFaces.length; i++) {
-            _btnFaces[i] = ImageIO.read(new File(btnFaceFiles[i]));
-        }
+        _btnFaces = btnFaces;
         _crtFace = 0;
         this.setBounds(
                 xAnchor, yAnchor,
                 _btnFaces[_crtFace].getWidth(), _btnFaces[_crtFace].getHeight());
     }
     
+    // Region: [Internal] Button faces loading
+    // btnFaceName is a resource relative to this class (i.e. "res/1_up.png"),
+    // looked up on the classpath first, then under RES_DIR on the file system.
+    static BufferedImage loadFace(String btnFaceName) throws IOException {
+        BufferedImage btnFace;
+        InputStream btnFaceStream = DbgButton.class.getResourceAsStream(btnFaceName);
+        if (btnFaceStream != null) {
+            try (InputStream in = btnFaceStream) {
+                btnFace = ImageIO.read(in);
+            }
+        } else {
+            btnFace = ImageIO.read(new File(RES_DIR + btnFaceName));
+        }
+        if (btnFace == null) {
+            throw new IOException(btnFaceName);
+        }
+        return btnFace;
+    }
+    
+    private static BufferedImage[] loadFaces(String... btnFaceNames) throws IOException {
+        BufferedImage[] btnFaces = new BufferedImage[btnFaceNames.length];
+        for(int i = 0; i < btnFaces.length; i++) {
+            btnFaces[i] = loadFace(btnFaceNames[i]);
+        }
+        return btnFaces;
+    }
+    // EndRegion: [Internal] Button faces loading
+    
     // Region: [Public] Canvas overrides
     @Override
     public void paint(Graphics g) {
@@ -2,19 +2,28 @@ package ColoringBook.graphics;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import javax.imageio.ImageIO;
 
 /**
  * Encapsulates a representation of a generic image file. A Drawing object 
- * can be created only by providing a valid image file as argument to its constructor. 
+ * can be created only by providing a valid image file, stream or content as argument to its constructor. 
  * In return, the object can be used for accessing and modifying the image at pixel level.
  */
 public class Drawing {
     
     private BufferedImage _image = null;
+    private IndexedRaster _indexed = null;
+    private FillPredicate _fillPredicate = FillPredicate.bright();
+    private RegionMap _regions = null;
+    private DrawingPreview _preview = null;
+    private long _contentHash = 0;
     
     /**
      * Creates an instance of a Drawing object encapsulating the representation of 
@@ -28,10 +37,191 @@ public class Drawing {
             throw new IOException();
         }
         _image = ImageIO.read(drwFile);
+        if (_image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        _contentHash = hashOf(_image);
+    }
+    
+    /**
+     * Creates an instance of a Drawing object encapsulating the representation of
+     * the image read from the given stream. The stream is not closed.
+     * @param imageStream - stream providing the content of a drawing image.
+     * @throws IOException - the stream cannot be read or its content is not a supported image.
+     */
+    public Drawing(InputStream imageStream) throws IOException {
+        _image = ImageIO.read(imageStream);
+        if (_image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        _contentHash = hashOf(_image);
+    }
+    
+    /**
+     * Creates an instance of a Drawing object encapsulating the representation of
+     * the image given as encoded content (i.e. the bytes of a PNG or JPEG file).
+     * @param imageData - content of a drawing image.
+     * @throws IOException - the content is not a supported image.
+     */
+    public Drawing(byte[] imageData) throws IOException {
+        this(new ByteArrayInputStream(imageData));
+    }
+    
+    /**
+     * Creates an instance of a Drawing object encapsulating the given image, i.e. one
+     * generated by the program. The image is not copied: painting the drawing modifies it.
+     * @param image - the drawing image.
+     */
+    public Drawing(BufferedImage image) {
+        _image = image;
+        _contentHash = hashOf(_image);
+    }
+    
+    /**
+     * Creates a Drawing from the given classpath resource or, if there is no such resource,
+     * from the file of the same name.
+     * @param imageName - resource name (i.e. "ColoringBook/drawings/bird.jpg") or filename of a drawing image.
+     * @return the new Drawing object.
+     * @throws IOException - neither the resource nor the file exist or can be read.
+     */
+    public static Drawing load(String imageName) throws IOException {
+        InputStream imageStream = Drawing.class.getClassLoader().getResourceAsStream(imageName);
+        if (imageStream == null) {
+            return new Drawing(imageName);
+        }
+        try (InputStream in = imageStream) {
+            return new Drawing(in);
+        }
+    }
+    
+    /**
+     * Starts decoding the given classpath resource or file on a background thread, such that
+     * the caller can prepare the display in the meantime.
+     * @param imageName - resource name or filename of a drawing image.
+     * @return a future completing with the new Drawing object, or with the IOException of the load.
+     * @see Drawing#load(String)
+     */
+    public static CompletableFuture<Drawing> loadAsync(String imageName) {
+        return loadAsync(imageName, false);
+    }
+    
+    /**
+     * Starts decoding the given classpath resource or file on a background thread, optionally
+     * switching it to indexed-color mode on the same thread, before it is ever displayed.
+     * @param imageName - resource name or filename of a drawing image.
+     * @param indexed - true for the drawing to be in indexed-color mode once loaded.
+     * @return a future completing with the new Drawing object, or with the IOException of the load.
+     * @see Drawing#toIndexed()
+     */
+    public static CompletableFuture<Drawing> loadAsync(String imageName, boolean indexed) {
+        CompletableFuture<Drawing> drawing = new CompletableFuture<Drawing>();
+        Thread decoder = new Thread(() -> {
+            try {
+                Drawing loaded = load(imageName);
+                if (indexed) {
+                    loaded.toIndexed();
+                }
+                drawing.complete(loaded);
+            } catch (IOException | RuntimeException e) {
+                drawing.completeExceptionally(e);
+            }
+        }, "drawing-decode");
+        decoder.setDaemon(true);
+        decoder.start();
+        return drawing;
     }
     
     BufferedImage getImage() {
-        return _image;
+        return (_indexed != null) ? _indexed.getImage() : _image;
+    }
+    
+    // copies the current pixels, indexed drawings keeping one byte per pixel.
+    BufferedImage copyImage() {
+        if (_indexed != null) {
+            return _indexed.copyImage();
+        }
+        int width = _image.getWidth();
+        BufferedImage copy = new BufferedImage(width, _image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < copy.getHeight(); y++) {
+            _image.getRGB(0, y, width, 1, row, 0, width);
+            copy.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return copy;
+    }
+    
+    void getRow(int y, int[] rgbRow) {
+        if (_indexed != null) {
+            _indexed.getRow(y, rgbRow);
+        } else {
+            _image.getRGB(0, y, _image.getWidth(), 1, rgbRow, 0, _image.getWidth());
+        }
+    }
+    
+    void setRow(int y, int[] rgbRow) {
+        if (_indexed != null) {
+            _indexed.setRow(y, rgbRow);
+        } else {
+            _image.setRGB(0, y, _image.getWidth(), 1, rgbRow, 0, _image.getWidth());
+        }
+        if (_preview != null) {
+            _preview.rowChanged(y);
+        }
+    }
+    
+    void fillSpan(int y, int x0, int x1, int rgb) {
+        if (_indexed != null) {
+            _indexed.fillSpan(y, x0, x1, rgb);
+        } else {
+            int[] span = new int[x1 - x0 + 1];
+            Arrays.fill(span, rgb);
+            _image.setRGB(x0, y, span.length, 1, span, 0, span.length);
+        }
+        if (_preview != null) {
+            _preview.spanChanged(y, x0, x1, _fillPredicate.test(rgb));
+        }
+    }
+    
+    private static long hashOf(BufferedImage image) {
+        int width = image.getWidth();
+        int[] row = new int[width];
+        long hash = 0xCBF29CE484222325L ^ ((long)width << 32 | image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int rgb : row) {
+                hash = (hash ^ (rgb & 0xFFFFFF)) * 0x100000001B3L;
+            }
+        }
+        return hash;
+    }
+    
+    static boolean isDarkRGB(int rgb) {
+        return ((rgb >> 16) & 0xFF) < 30 && ((rgb >> 8) & 0xFF) < 30 && (rgb & 0xFF) < 30;
+    }
+    
+    /**
+     * Switches the drawing to indexed-color mode, storing one byte per pixel instead of a
+     * full RGB value. The palette holds up to 256 colors: the colors of the image, reduced to
+     * the 224 most frequent ones if needed, and room for the colors painted afterwards.
+     * Once the palette is full, new colors are replaced by their closest palette entry.
+     * Neither reduction ever changes whether a pixel is bright-toned, dark-toned or neither.<p>
+     * The image is still decoded in full RGB first, so the mode lowers the memory held while
+     * the drawing is colored, not the peak memory needed to load it.
+     */
+    public void toIndexed() {
+        if (_indexed == null) {
+            _indexed = new IndexedRaster(_image, _fillPredicate);
+            _image = null;
+        }
+    }
+    
+    /**
+     * Indicates whether the drawing is in indexed-color mode.
+     * @return true if the drawing stores one palette index per pixel, false otherwise.
+     * @see Drawing#toIndexed()
+     */
+    public boolean isIndexed() {
+        return _indexed != null;
     }
 
     /**
@@ -39,7 +229,7 @@ public class Drawing {
      * @return the width of the drawing image in pixels.
      */
     public int getWidth() {
-        return _image.getWidth();
+        return getImage().getWidth();
     }
     
     /**
@@ -47,7 +237,7 @@ public class Drawing {
      * @return the height of the drawing image in pixels.
      */
     public int getHeight() {
-        return _image.getHeight();
+        return getImage().getHeight();
     }
     
     /**
@@ -59,20 +249,45 @@ public class Drawing {
      * @return true if both x and y are within their respective ranges, false otherwise.
      */
     public boolean isValidPixel(int x, int y) {
-        return (x >= 0 && x <= _image.getWidth()-3 && y >=0 && y <= _image.getHeight()-3);
+        return (x >= 0 && x < getWidth() && y >= 0 && y < getHeight());
+    }
+    
+    /**
+     * Gets the predicate deciding which pixels are bright-toned, hence can be filled.
+     * @return the FillPredicate currently in use by this drawing.
+     */
+    public FillPredicate getFillPredicate() {
+        return _fillPredicate;
+    }
+    
+    /**
+     * Sets the predicate deciding which pixels are bright-toned, hence can be filled.
+     * @param fillPredicate - the FillPredicate to be used, i.e. FillPredicate.brightness(200)
+     * to tolerate the anti-aliased halo around the outlines.
+     */
+    public void setFillPredicate(FillPredicate fillPredicate) {
+        _fillPredicate = fillPredicate;
+        _regions = null;
+        _preview = null;
+        if (_indexed != null) {
+            _indexed.setFillPredicate(fillPredicate);
+        }
     }
     
     /**
      * Indicates whether the pixel at the given x and y coordinates is of a bright-toned color.
-     * This is defined as a color where each of the three color-components (R, G and B)
-     * have a value larger than 220.
+     * This is defined by the drawing's FillPredicate, by default a color where each of the
+     * three color-components (R, G and B) have a value larger than 220.
      * @param x - x coordinate value.
      * @param y - y coordinate value.
      * @return true if the pixel has a bright-toned color, false otherwise.
+     * @see Drawing#setFillPredicate(FillPredicate)
      */
     public boolean isBrightPixel(int x, int y) {
-        Color c = new Color(_image.getRGB(x, y));
-        return c.getRed() > 220 && c.getGreen() > 220 && c.getBlue() > 220;
+        if (_indexed != null) {
+            return _indexed.isBright(x, y);
+        }
+        return _fillPredicate.test(_image.getRGB(x, y));
     }
     
     /**
@@ -84,8 +299,10 @@ public class Drawing {
      * @return true if the pixel has a dark-toned color, false otherwise.
      */
     public boolean isDarkPixel(int x, int y) {
-        Color c = new Color(_image.getRGB(x, y));
-        return c.getRed() < 30 && c.getGreen() < 30 && c.getBlue() < 30;
+        if (_indexed != null) {
+            return _indexed.isDark(x, y);
+        }
+        return isDarkRGB(_image.getRGB(x, y));
     }
     
     /**
@@ -95,6 +312,9 @@ public class Drawing {
      * @return the Color value at the given coordinates.
      */
     public Color getPixel(int x, int y) {
+        if (_indexed != null) {
+            return new Color(_indexed.getRGB(x, y));
+        }
         return new Color(_image.getRGB(x, y));
     }
     
@@ -105,6 +325,102 @@ public class Drawing {
      * @param c - the Color value to be set at the given coordinates.
      */
     public void setPixel(int x, int y, Color c) {
-        _image.setRGB(x, y, c.getRGB());
+        if (_indexed != null) {
+            _indexed.setRGB(x, y, c.getRGB());
+        } else {
+            _image.setRGB(x, y, c.getRGB());
+        }
+        if (_preview != null) {
+            _preview.spanChanged(y, x, x, _fillPredicate.test(c.getRGB()));
+        }
+    }
+    
+    /**
+     * Gets a 64-bit hash identifying the line art of the drawing: the content of the image
+     * as it was loaded, followed by the edits made through drawLine(). Painting pixels
+     * doesn't change it.
+     * @return the content hash of the drawing.
+     */
+    public long getContentHash() {
+        return _contentHash;
+    }
+    
+    /**
+     * Gets the downsampled copy of the drawing used for previewing fills. It is built on
+     * first use, then kept up to date as the drawing is painted.
+     * Changing the FillPredicate discards it.
+     * @return the DrawingPreview of this drawing.
+     */
+    public DrawingPreview getPreview() {
+        if (_preview == null) {
+            _preview = new DrawingPreview(this);
+        }
+        return _preview;
+    }
+    
+    /**
+     * Gets the partitioning of the drawing into its bright regions. The RegionMap is built
+     * on first use, then kept up to date as the line art is edited through drawLine().
+     * Changing the FillPredicate, or asking for another connectivity, discards it.
+     * @param connectivity - the connectivity of the pixels of a region, as for the fills.
+     * @return the RegionMap of this drawing.
+     */
+    public RegionMap getRegionMap(Connectivity connectivity) {
+        if (_regions == null || _regions.getConnectivity() != connectivity) {
+            _regions = new RegionMap(this, connectivity);
+        }
+        return _regions;
+    }
+    
+    /**
+     * Edits the line art by drawing a line between the two given points, i.e. in black to close
+     * a gap in an outline or in white to erase a stroke. The line is 4-connected, such that
+     * a dark line cannot be crossed by a fill, even diagonally. Points outside the image are skipped.
+     * Only the regions touching the line are relabeled in the RegionMap, if already built.
+     * @param x0 - x coordinate value of the start point.
+     * @param y0 - y coordinate value of the start point.
+     * @param x1 - x coordinate value of the end point.
+     * @param y1 - y coordinate value of the end point.
+     * @param c - the Color value of the line.
+     * @return the regions the edited pixels belong to or were taken from, as renumbered after
+     * the edit; empty if the RegionMap was not built yet.
+     */
+    public int[] drawLine(int x0, int y0, int x1, int y1, Color c) {
+        int width = getWidth();
+        int height = getHeight();
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        int sx = (x0 < x1) ? 1 : -1;
+        int sy = (y0 < y1) ? 1 : -1;
+        int[] edited = new int[dx + dy + 1];
+        int editedCount = 0;
+        int x = x0;
+        int y = y0;
+        int err = dx - dy;
+        while (true) {
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                setPixel(x, y, c);
+                edited[editedCount++] = y * width + x;
+            }
+            if (x == x1 && y == y1) {
+                break;
+            }
+            // move along a single axis at a time, so no diagonal gap is left behind.
+            if (y == y1 || (x != x1 && Math.abs(err - dy) <= Math.abs(err + dx))) {
+                err -= dy;
+                x += sx;
+            } else {
+                err += dx;
+                y += sy;
+            }
+        }
+        long[] edit = {x0, y0, x1, y1, c.getRGB()};
+        for (long v : edit) {
+            _contentHash = (_contentHash ^ v) * 0x100000001B3L;
+        }
+        if (_regions == null) {
+            return new int[0];
+        }
+        return _regions.update(edited, editedCount);
     }
 }
@@ -1,15 +1,39 @@
 package ColoringBook.graphics;
 import java.awt.Canvas;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 
-class DrawingCanvas extends Canvas {
+class DrawingCanvas extends Canvas implements Runnable {
 
     private static final long serialVersionUID = 1L;
-    private int _xOrig = 0;
-    private int _yOrig = 0;
-    private int _scale = 1;
+    private static final double MIN_SCALE = 1.0;
+    private static final double MAX_SCALE = 8.0;
+    private static final double ZOOM_STEP = 1.25;
+    // longest wait for a frame being rendered when the canvas goes away.
+    private static final long RENDER_JOIN_MS = 1000;
+    private double _xOrig = 0;
+    private double _yOrig = 0;
+    private double _scale = 1;
     private Drawing _drwImage;
     
+    // render loop state, guarded by _renderSync.
+    private final Object _renderSync = new Object();
+    private Thread _renderThread = null;
+    private boolean _renderPending = false;
+    private boolean _contentChanged = true;
+    private BufferedImage _overlay = null;
+    private int _overlayFactor = 1;
+    
+    // owned by the render thread.
+    private BufferStrategy _strategy = null;
+    private VolatileImage _vImage = null;
+    
     DrawingCanvas(int xAnchor, int yAnchor, Drawing drwImage) {
         _drwImage = drwImage;
         setBounds(
@@ -26,41 +50,204 @@ class DrawingCanvas extends Canvas {
     }
     
     public int xScreenToCanvas(int x) {
-        return (x - _xOrig) / _scale;
+        synchronized (_renderSync) {
+            return (int)Math.floor((x - _xOrig) / _scale);
+        }
     }
     
     public int yScreenToCanvas(int y) {
-        return (y - _yOrig) / _scale;
+        synchronized (_renderSync) {
+            return (int)Math.floor((y - _yOrig) / _scale);
+        }
     }
     
     public void zoom(int xAnchor, int yAnchor, int levels) {
-        if (levels != 1 && levels != -1) {
-            System.out.println("hmm");
+        synchronized (_renderSync) {
+            double newScale = Math.min(MAX_SCALE, Math.max(MIN_SCALE, _scale * Math.pow(ZOOM_STEP, levels)));
+            if (newScale != _scale) {
+                // keep the point of the unscaled image under (xAnchor, yAnchor) in place.
+                double xImg = (xAnchor - _xOrig) / _scale;
+                double yImg = (yAnchor - _yOrig) / _scale;
+                _xOrig = xAnchor - xImg * newScale;
+                _yOrig = yAnchor - yImg * newScale;
+                _scale = newScale;
+                constrainMovement();
+                requestRender(false);
+            }
         }
-        
-        int newScale = _scale + levels;
-        if(newScale > 0 && newScale <= 8) {
-            // find out the pixel in the unscaled image corresponding to (xAnchor, yAnchor)
-            int xImg = xScreenToCanvas(xAnchor);
-            int yImg = yScreenToCanvas(yAnchor);
-            // recalculate the _xOrig & _yOrig
-            _xOrig = (xAnchor / newScale - xImg) * newScale;
-            _yOrig = (yAnchor / newScale - yImg) * newScale;
-            _scale = newScale;
+    }
+    
+    public void pan(int xOffset, int yOffset) {
+        synchronized (_renderSync) {
+            _xOrig += xOffset;
+            _yOrig += yOffset;
             constrainMovement();
-            repaint();
+            requestRender(false);
         }
     }
     
-    public void pan(int xOffset, int yOffset) {
-        _xOrig += xOffset;
-        _yOrig += yOffset;
-        constrainMovement();
-        repaint();
+    // overlay is drawn over the drawing, each of its pixels covering factor x factor drawing pixels.
+    void setOverlay(BufferedImage overlay, int factor) {
+        synchronized (_renderSync) {
+            _overlay = overlay;
+            _overlayFactor = factor;
+            requestRender(false);
+        }
     }
     // EndRegion: [Internal] User control methods
     
+    // Region: [Private] Render loop
+    private void requestRender(boolean contentChanged) {
+        synchronized (_renderSync) {
+            _contentChanged |= contentChanged;
+            _renderPending = true;
+            _renderSync.notifyAll();
+        }
+    }
+    
+    @Override
+    public void run() {
+        Thread thisThread = Thread.currentThread();
+        try {
+            while (true) {
+                boolean contentChanged;
+                double xOrig, yOrig, scale;
+                BufferedImage overlay;
+                int overlayFactor;
+                synchronized (_renderSync) {
+                    while (!_renderPending && _renderThread == thisThread) {
+                        _renderSync.wait();
+                    }
+                    if (_renderThread != thisThread) {
+                        return;
+                    }
+                    // requests made while rendering are coalesced into the next frame.
+                    contentChanged = _contentChanged;
+                    _renderPending = false;
+                    _contentChanged = false;
+                    xOrig = _xOrig;
+                    yOrig = _yOrig;
+                    scale = _scale;
+                    overlay = _overlay;
+                    overlayFactor = _overlayFactor;
+                }
+                render(contentChanged, xOrig, yOrig, scale, overlay, overlayFactor);
+            }
+        } catch (InterruptedException | IllegalStateException e) {
+            // the canvas is going away.
+        }
+    }
+    
+    // uploads the drawing into accelerated memory when it changed or was lost.
+    private boolean validateSource(boolean contentChanged) {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (gc == null) {
+            throw new IllegalStateException("Canvas is not displayable");
+        }
+        int status = (_vImage == null) ? VolatileImage.IMAGE_INCOMPATIBLE : _vImage.validate(gc);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (_vImage != null) {
+                _vImage.flush();
+            }
+            _vImage = gc.createCompatibleVolatileImage(_drwImage.getWidth(), _drwImage.getHeight());
+            contentChanged = true;
+        } else if (status == VolatileImage.IMAGE_RESTORED) {
+            contentChanged = true;
+        }
+        if (contentChanged) {
+            Graphics2D vg = _vImage.createGraphics();
+            vg.drawImage(_drwImage.getImage(), 0, 0, null);
+            vg.dispose();
+        }
+        return _vImage.contentsLost();
+    }
+    
+    private void render(boolean contentChanged, double xOrig, double yOrig, double scale,
+            BufferedImage overlay, int overlayFactor) {
+        if (_strategy == null) {
+            createBufferStrategy(2);
+            _strategy = getBufferStrategy();
+        }
+        do {
+            do {
+                while (validateSource(contentChanged)) {
+                    contentChanged = true;
+                }
+                contentChanged = false;
+                Graphics2D g = (Graphics2D)_strategy.getDrawGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                g.setColor(getBackground());
+                g.fillRect(0, 0, getWidth(), getHeight());
+                g.drawImage(
+                        _vImage,
+                        (int)Math.round(xOrig),
+                        (int)Math.round(yOrig),
+                        (int)Math.round(scale * _drwImage.getWidth()),
+                        (int)Math.round(scale * _drwImage.getHeight()),
+                        null);
+                if (overlay != null) {
+                    // overlay blocks along the right and bottom edges may overhang the drawing.
+                    g.clipRect(
+                            (int)Math.round(xOrig),
+                            (int)Math.round(yOrig),
+                            (int)Math.round(scale * _drwImage.getWidth()),
+                            (int)Math.round(scale * _drwImage.getHeight()));
+                    g.drawImage(
+                            overlay,
+                            (int)Math.round(xOrig),
+                            (int)Math.round(yOrig),
+                            (int)Math.round(scale * overlayFactor * overlay.getWidth()),
+                            (int)Math.round(scale * overlayFactor * overlay.getHeight()),
+                            null);
+                }
+                g.dispose();
+            } while (_strategy.contentsRestored());
+            _strategy.show();
+        } while (_strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+    // EndRegion: [Private] Render loop
+    
     // Region: [Public] Canvas overrides
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        synchronized (_renderSync) {
+            // the previous render thread, if any, was joined by removeNotify().
+            _strategy = null;
+            _vImage = null;
+            _renderThread = new Thread(this, "canvas-render");
+            _renderThread.setDaemon(true);
+            _renderThread.start();
+            requestRender(true);
+        }
+    }
+    
+    @Override
+    public void removeNotify() {
+        Thread renderThread;
+        synchronized (_renderSync) {
+            renderThread = _renderThread;
+            _renderThread = null;
+            _renderSync.notifyAll();
+        }
+        // let a frame being rendered complete before the peer is destroyed.
+        if (renderThread != null && renderThread != Thread.currentThread()) {
+            try {
+                renderThread.join(RENDER_JOIN_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.removeNotify();
+    }
+    
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        // all repaint() variants land here: the drawing may have been modified.
+        requestRender(true);
+    }
+    
     @Override
     public void update(Graphics g) {
         paint(g);
@@ -68,12 +255,7 @@ class DrawingCanvas extends Canvas {
     
     @Override
     public void paint(Graphics g) {
-        g.drawImage(
-                _drwImage.getImage(), 
-                _xOrig, _yOrig, 
-                _scale * _drwImage.getWidth(),
-                _scale * _drwImage.getHeight(),
-                null);
+        requestRender(false);
     }
     // EndRegion: [Public] Canvas overrides
 }
@@ -14,6 +14,19 @@ import java.awt.event.WindowListener;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import ColoringBook.graphics.DbgButton.BtnState;
 
@@ -33,6 +46,26 @@ public class DrawingFrame implements
     private static final int STATUS_XY_WIDTH = 32;
     private static final int STATUS_TEXT_WIDTH = 200;
     private static final int STATUS_HEIGHT = 20;
+    private static final long FILL_REPAINT_PERIOD = 40;
+    // opacity of the fill preview blocks, such that the exact fill shows through them.
+    private static final int PREVIEW_ALPHA = 0x60;
+    private static final char[] DBG_KEYS = {'1', '2', ' '};
+    private static final String[][] DBG_FACES = {
+            {"res/1_up.png", "res/1_down.png"},
+            {"res/2_up.png", "res/2_down.png"},
+            {"res/ff_up.png", "res/ff_down.png"}};
+    
+    /**
+     * Functional interface for the code to be executed when the user clicks on the drawing.
+     * It is given the coordinates of the clicked pixel, in drawing (not screen) space.
+     * The hook runs on a background thread, one click at a time in the order they were made,
+     * while the frame is periodically repainted to reflect the progress. A hook may be
+     * interrupted when the frame is closed.
+     * @see DrawingFrame#setClickHook(ClickHook)
+     */
+    public interface ClickHook {
+        public void clickHook(int x, int y) throws InterruptedException;
+    }
 
     private MouseEvent _lastMouseEvent = null;
     private Drawing _drawing = null;
@@ -42,6 +75,9 @@ public class DrawingFrame implements
     private TextField _statusX = null;
     private TextField _statusY = null;
     private TextField _statusText = null;
+    private ClickHook _clickHook = null;
+    private ExecutorService _clickExecutor = Executors.newSingleThreadExecutor(daemonThreads("fill"));
+    private ScheduledExecutorService _repaintExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("fill-repaint"));
     
     // Region: [Public] Execution control methods
     private KeyInterceptor _keyInterceptor = new KeyInterceptor();
@@ -116,28 +152,82 @@ public class DrawingFrame implements
     };
     // EndRegion: [Private] KeyInterceptor hooks
 
+    // Region: [Private] Concurrent loading
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+    // EndRegion: [Private] Concurrent loading
+    
+    // Region: [Private] Click hook execution
+    private static ThreadFactory daemonThreads(String name) {
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private void runClickHook(ClickHook clickHook, int x, int y) {
+        ScheduledFuture<?> repaints = _repaintExecutor.scheduleAtFixedRate(
+                _canvas::repaint,
+                FILL_REPAINT_PERIOD, FILL_REPAINT_PERIOD, TimeUnit.MILLISECONDS);
+        try {
+            clickHook.clickHook(x, y);
+        } catch (InterruptedException e) {
+            // the frame is being closed, abandon the fill.
+        } finally {
+            repaints.cancel(false);
+            _canvas.repaint();
+        }
+    }
+    // EndRegion: [Private] Click hook execution
+
     // Region: [Private] DbgButtons management
-    private void dbgButtonsSetup(int xAnchor, int yAnchor) throws IOException {
-        char[] dbgKeys = {'1', '2', ' '};
+    // starts loading all the button faces at once, in the order of DBG_FACES.
+    private static ArrayList<Future<BufferedImage>> dbgFacesLoad() {
+        ExecutorService loader = Executors.newCachedThreadPool(daemonThreads("dbg-face"));
+        ArrayList<Future<BufferedImage>> faces = new ArrayList<Future<BufferedImage>>();
+        for (String[] btnFaces : DBG_FACES) {
+            for (String btnFace : btnFaces) {
+                faces.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return DbgButton.loadFace(btnFace);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, loader));
+            }
+        }
+        loader.shutdown();
+        return faces;
+    }
+    
+    private void dbgButtonsSetup(int xAnchor, int yAnchor, ArrayList<Future<BufferedImage>> faces) throws IOException {
         _dbgButtons = new DbgButton[3];
-        for (int i = 0; i < _dbgButtons.length; i++) {
-            if (i < _dbgButtons.length - 1) {
-                _dbgButtons[i] = new DbgButton(
-                        dbgKeys[i],
-                        xAnchor,
-                        yAnchor,
-                        String.format("ColoringBook/graphics/res/%d_up.png", i+1),
-                        String.format("ColoringBook/graphics/res/%d_down.png", i+1));
-                xAnchor += _dbgButtons[i].getWidth();
-            } else {
+        for (int i = 0, f = 0; i < _dbgButtons.length; i++) {
+            BufferedImage[] btnFaces = new BufferedImage[DBG_FACES[i].length];
+            for (int j = 0; j < btnFaces.length; j++) {
+                btnFaces[j] = await(faces.get(f++));
+            }
+            if (i == _dbgButtons.length - 1) {
                 xAnchor += 4 * PADDING;
-                _dbgButtons[i] = new DbgButton(
-                        dbgKeys[i],
-                        xAnchor,
-                        yAnchor,
-                        "ColoringBook/graphics/res/ff_up.png",
-                        "ColoringBook/graphics/res/ff_down.png");
             }
+            _dbgButtons[i] = new DbgButton(DBG_KEYS[i], xAnchor, yAnchor, btnFaces);
+            xAnchor += _dbgButtons[i].getWidth();
             _dbgButtons[i].setState(BtnState.DISABLED);
         }
     }
@@ -174,62 +264,84 @@ public class DrawingFrame implements
      * @throws IOException
      */
     public DrawingFrame(Drawing drawing) throws IOException {
+        this(CompletableFuture.completedFuture(drawing));
+    }
+    
+    /**
+     * Creates an instance of a DrawingFrame object for a drawing which may still be loading, i.e.
+     * as returned by Drawing.loadAsync(). The window and its buttons are set up while the drawing
+     * is decoded, then the constructor waits for the drawing to lay out the window around it.
+     * @param drawing - the future drawing to be displayed by this frame.
+     * @throws IOException - the drawing or the button faces could not be loaded.
+     */
+    public DrawingFrame(Future<Drawing> drawing) throws IOException {
         // setup callback methods for keyInterceptor control keys
         _keyInterceptor.setKeyTypedHook('1', _onKeyInteceptorCtrl);
         _keyInterceptor.setKeyTypedHook('2', _onKeyInteceptorCtrl);
         _keyInterceptor.setKeyTypedHook(' ', _onKeyInteceptorCtrl);
         
-        _drawing = drawing;
+        // load the button faces in the background as well
+        ArrayList<Future<BufferedImage>> dbgFaces = dbgFacesLoad();
         
         // create the frame and get the insets
         _frame = new Frame(TITLE);
         _frame.setBackground(Color.LIGHT_GRAY);
         _frame.pack();
-        Insets insets = _frame.getInsets();
-        
-        // setup the xAnchor and yAnchor to anchor controls
-        int xAnchor = insets.left + PADDING;
-        int yAnchor = insets.top + PADDING;
-        
-        // create the debug buttons
-        dbgButtonsSetup(xAnchor, yAnchor);
-        yAnchor += _dbgButtons[0].getHeight() + PADDING;
-        
-        // create the map canvas
-        _canvas = new DrawingCanvas(xAnchor, yAnchor, _drawing);
-        _canvas.addKeyListener(_keyInterceptor);
-        _canvas.addMouseMotionListener(this);
-        _canvas.addMouseListener(this);
-        _canvas.addMouseWheelListener(this);
-        yAnchor += _canvas.getHeight() + PADDING;
-        
-        // create the status bar indicators
-        statusBarSetup(xAnchor, yAnchor, _drawing.getWidth());
-        yAnchor += STATUS_HEIGHT + PADDING;
-        
-        // layout the frame size and attributes
-        _frame.setSize(
-                xAnchor + _drawing.getWidth() + PADDING + insets.right,
-                yAnchor + insets.bottom);
-        _frame.setLayout(null);
-        _frame.setLocationRelativeTo(null);
-        _frame.setResizable(false);
-        
-        // add the controls
-        for(DbgButton dbgButton : _dbgButtons) {
-            dbgButton.addMouseListener(this);
-            dbgButton.addKeyListener(_keyInterceptor);
-            _frame.add(dbgButton);
+        // once packed, the frame is displayable and keeps the AWT threads, hence the process,
+        // alive: dispose of it if the drawing or the button faces fail to load.
+        try {
+            Insets insets = _frame.getInsets();
+            
+            // setup the xAnchor and yAnchor to anchor controls
+            int xAnchor = insets.left + PADDING;
+            int yAnchor = insets.top + PADDING;
+            
+            // create the debug buttons
+            dbgButtonsSetup(xAnchor, yAnchor, dbgFaces);
+            yAnchor += _dbgButtons[0].getHeight() + PADDING;
+            
+            // the rest of the layout depends on the drawing size
+            _drawing = await(drawing);
+            
+            // create the map canvas
+            _canvas = new DrawingCanvas(xAnchor, yAnchor, _drawing);
+            _canvas.addKeyListener(_keyInterceptor);
+            _canvas.addMouseMotionListener(this);
+            _canvas.addMouseListener(this);
+            _canvas.addMouseWheelListener(this);
+            yAnchor += _canvas.getHeight() + PADDING;
+            
+            // create the status bar indicators
+            statusBarSetup(xAnchor, yAnchor, _drawing.getWidth());
+            yAnchor += STATUS_HEIGHT + PADDING;
+            
+            // layout the frame size and attributes
+            _frame.setSize(
+                    xAnchor + _drawing.getWidth() + PADDING + insets.right,
+                    yAnchor + insets.bottom);
+            _frame.setLayout(null);
+            _frame.setLocationRelativeTo(null);
+            _frame.setResizable(false);
+            
+            // add the controls
+            for(DbgButton dbgButton : _dbgButtons) {
+                dbgButton.addMouseListener(this);
+                dbgButton.addKeyListener(_keyInterceptor);
+                _frame.add(dbgButton);
+            }
+            
+            _frame.add(_canvas);
+            _frame.add(_statusX);
+            _frame.add(_statusY);
+            _frame.add(_statusText);
+            
+            // add the listeners
+            _frame.addKeyListener(_keyInterceptor);
+            _frame.addWindowListener(this);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
         }
-        
-        _frame.add(_canvas);
-        _frame.add(_statusX);
-        _frame.add(_statusY);
-        _frame.add(_statusText);
-        
-        // add the listeners
-        _frame.addKeyListener(_keyInterceptor);
-        _frame.addWindowListener(this);
     }
     
     // Region: [Public] Frame display methods
@@ -258,11 +370,49 @@ public class DrawingFrame implements
         _statusText.setText(message);
     }
     
+    /**
+     * Sets the code to be executed when the user clicks on a pixel of the drawing,
+     * typically a fill starting from that pixel. Clicks are queued and executed in order
+     * on a background thread, such that the window stays responsive while they run.
+     * Drawing objects are not thread-safe: the hook must only be set once the program
+     * itself is done painting the drawing, or only waits in step() or stop().
+     * @param clickHook - the code to be executed, or null to only display the clicked pixel color.
+     */
+    public void setClickHook(ClickHook clickHook) {
+        _clickHook = clickHook;
+    }
+    
+    /**
+     * Shows an approximate fill result over the drawing, until clearPreview() is called.
+     * The blocks are translucent, such that the exact fill painted on the drawing meanwhile
+     * shows through them. The drawing itself is left unchanged.
+     * @param preview - the preview the blocks were computed on.
+     * @param blocks - the blocks to be shown, as returned by DrawingPreview.fill().
+     * @param c - the Color value the blocks are shown in.
+     */
+    public void showPreview(DrawingPreview preview, BitSet blocks, Color c) {
+        BufferedImage overlay = new BufferedImage(preview.getWidth(), preview.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int argb = (PREVIEW_ALPHA << 24) | (c.getRGB() & 0xFFFFFF);
+        for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+            overlay.setRGB(b % preview.getWidth(), b / preview.getWidth(), argb);
+        }
+        _canvas.setOverlay(overlay, preview.getFactor());
+    }
+    
+    /**
+     * Removes the approximate fill result shown by showPreview().
+     */
+    public void clearPreview() {
+        _canvas.setOverlay(null, 1);
+    }
+    
     /**
      * Closes the window.
      */
     @Override
     public void close() throws IOException {
+        _clickExecutor.shutdownNow();
+        _repaintExecutor.shutdownNow();
         if (_frame != null) {
             _frame.setVisible(false);
             _frame.dispose();
@@ -315,9 +465,17 @@ public class DrawingFrame implements
                 _keyInterceptor.simulateKeyTyped(dbgButton, dbgButton.getKey());
             }
         } else {
-            BufferedImage bi = _drawing.getImage();
-            Color c = new Color(bi.getRGB(e.getX(), e.getY()));
+            int x = _canvas.xScreenToCanvas(e.getX());
+            int y = _canvas.yScreenToCanvas(e.getY());
+            if (!_drawing.isValidPixel(x, y)) {
+                return;
+            }
+            Color c = _drawing.getPixel(x, y);
             _statusText.setText(String.format("R:%d, G:%d, B:%d", c.getRed(), c.getGreen(), c.getBlue()));
+            ClickHook clickHook = _clickHook;
+            if (clickHook != null && !_clickExecutor.isShutdown()) {
+                _clickExecutor.execute(() -> runClickHook(clickHook, x, y));
+            }
         }
     }
 
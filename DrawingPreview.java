@@ -0,0 +1,148 @@
+package ColoringBook.graphics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Encapsulates a downsampled copy of a Drawing, used for showing an approximate fill result
+ * before the exact one is complete. Each block of factor x factor pixels of the drawing is
+ * reduced to one bit, set only if all the pixels of the block are bright-toned. The outlines
+ * are hence preserved conservatively: a fill over the bright blocks never reaches a pixel
+ * the exact fill wouldn't reach.<p>
+ * A DrawingPreview is obtained through Drawing.getPreview() and kept up to date as the
+ * drawing is painted.
+ */
+public class DrawingPreview {
+
+    // keep the coarse grid around 256K blocks, whatever the size of the drawing.
+    private static final int TARGET_BLOCKS = 1 << 18;
+
+    private final Drawing _drawing;
+    private final int _factor;
+    private final int _width;
+    private final int _height;
+    private final BitSet _bright;
+    // block rows to be recomputed from the drawing before the next query.
+    private final BitSet _dirtyRows = new BitSet();
+
+    DrawingPreview(Drawing drawing) {
+        _drawing = drawing;
+        int pixels = drawing.getWidth() * drawing.getHeight();
+        _factor = Math.max(2, (int)Math.ceil(Math.sqrt((double)pixels / TARGET_BLOCKS)));
+        _width = (drawing.getWidth() + _factor - 1) / _factor;
+        _height = (drawing.getHeight() + _factor - 1) / _factor;
+        _bright = new BitSet(_width * _height);
+        _dirtyRows.set(0, _height);
+        refresh();
+    }
+
+    // Region: [Private] Block computation
+    private void refresh() {
+        if (_dirtyRows.isEmpty()) {
+            return;
+        }
+        FillPredicate fillPredicate = _drawing.getFillPredicate();
+        int[] row = new int[_drawing.getWidth()];
+        for (int by = _dirtyRows.nextSetBit(0); by >= 0; by = _dirtyRows.nextSetBit(by + 1)) {
+            int first = by * _width;
+            _bright.set(first, first + _width);
+            int yEnd = Math.min(_drawing.getHeight(), (by + 1) * _factor);
+            for (int y = by * _factor; y < yEnd; y++) {
+                _drawing.getRow(y, row);
+                for (int x = 0; x < row.length; x++) {
+                    if (!fillPredicate.test(row[x])) {
+                        _bright.clear(first + x / _factor);
+                    }
+                }
+            }
+        }
+        _dirtyRows.clear();
+    }
+    // EndRegion: [Private] Block computation
+
+    // Region: [Internal] Drawing change notifications
+    void spanChanged(int y, int x0, int x1, boolean bright) {
+        int by = y / _factor;
+        if (bright) {
+            // a block can only become bright once all its pixels are checked again.
+            _dirtyRows.set(by);
+        } else {
+            int first = by * _width;
+            _bright.clear(first + x0 / _factor, first + x1 / _factor + 1);
+        }
+    }
+
+    void rowChanged(int y) {
+        _dirtyRows.set(y / _factor);
+    }
+    // EndRegion: [Internal] Drawing change notifications
+
+    // Region: [Public] Preview queries
+    /**
+     * Gets the size of the blocks of the drawing represented by one preview element.
+     * @return the number of drawing pixels on each side of a block.
+     */
+    public int getFactor() {
+        return _factor;
+    }
+
+    /**
+     * Gets the width of the preview.
+     * @return the number of blocks across the drawing.
+     */
+    public int getWidth() {
+        return _width;
+    }
+
+    /**
+     * Gets the height of the preview.
+     * @return the number of blocks down the drawing.
+     */
+    public int getHeight() {
+        return _height;
+    }
+
+    /**
+     * Fills the preview from the block containing the given drawing pixel, spreading over
+     * the bright blocks connected as the pixels of the exact fill are.
+     * @param x - x coordinate value of the seed, in drawing pixels.
+     * @param y - y coordinate value of the seed, in drawing pixels.
+     * @param connectivity - the connectivity of the exact fill.
+     * @return the reached blocks, bit by*getWidth()+bx standing for block (bx, by).
+     * Empty if the block of the seed is not entirely bright.
+     */
+    public BitSet fill(int x, int y, Connectivity connectivity) {
+        refresh();
+        BitSet reached = new BitSet();
+        int seed = (y / _factor) * _width + x / _factor;
+        if (!_bright.get(seed)) {
+            return reached;
+        }
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = seed;
+        reached.set(seed);
+        while (size > 0) {
+            int b = stack[--size];
+            int bx = b % _width;
+            int by = b / _width;
+            for (int k = 0; k < connectivity.size(); k++) {
+                int nx = bx + connectivity.dx(k);
+                int ny = by + connectivity.dy(k);
+                if (nx < 0 || nx >= _width || ny < 0 || ny >= _height) {
+                    continue;
+                }
+                int n = ny * _width + nx;
+                if (_bright.get(n) && !reached.get(n)) {
+                    reached.set(n);
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = n;
+                }
+            }
+        }
+        return reached;
+    }
+    // EndRegion: [Public] Preview queries
+}
@@ -0,0 +1,126 @@
+package ColoringBook.graphics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Encapsulates a persistent, size-bounded cache of fill results. A FillCache object can be
+ * created only by providing the directory holding the cache files as argument to its constructor.
+ * In return, the object can be used for recording the region reached by a fill as a SpanMask
+ * and for looking it up again from any seed inside that region, across program runs.<p>
+ * Regions are kept in one file per drawing, FillPredicate and Connectivity, named after the content
+ * hash of the drawing, the id of the predicate and the connectivity of the fill. Lookups memory-map the file and skip the regions
+ * whose bounding box doesn't contain the seed. When the files exceed the size limit, the least
+ * recently used ones are deleted.
+ */
+public class FillCache {
+
+    private static final String EXTENSION = ".spans";
+
+    private final File _dir;
+    private final long _maxBytes;
+
+    /**
+     * Creates an instance of a FillCache object storing its files in the given directory.
+     * @param dir - the cache directory. It is created if it doesn't exist.
+     * @param maxBytes - the size the cache files may take together.
+     * @throws IOException - the directory doesn't exist and cannot be created.
+     */
+    public FillCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        _dir = dir;
+        _maxBytes = maxBytes;
+    }
+
+    private File fileOf(Drawing drawing, Connectivity connectivity) {
+        return new File(_dir, String.format("%016x-%016x-%s%s",
+                drawing.getContentHash(), drawing.getFillPredicate().getId(),
+                connectivity.name().toLowerCase(Locale.ROOT), EXTENSION));
+    }
+
+    /**
+     * Looks up the cached region of the drawing containing the pixel at the given coordinates.
+     * The regions are those of the drawing as loaded, so a cached region is only meaningful
+     * while the pixel is still bright-toned.
+     * @param drawing - the drawing being filled.
+     * @param connectivity - the connectivity of the fill, regions of the other one are not returned.
+     * @param x - x coordinate value of the fill seed.
+     * @param y - y coordinate value of the fill seed.
+     * @return the cached region as a SpanMask, or null if no cached region contains the pixel.
+     * @throws IOException - the cache file exists but cannot be read.
+     */
+    public SpanMask lookup(Drawing drawing, Connectivity connectivity, int x, int y) throws IOException {
+        File file = fileOf(drawing, connectivity);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.hasRemaining()) {
+                SpanMask mask = SpanMask.readIfBoundsContain(buffer, x, y);
+                if (mask != null && mask.contains(x, y)) {
+                    if (!mask.fitsIn(drawing.getWidth(), drawing.getHeight())) {
+                        return null;
+                    }
+                    file.setLastModified(System.currentTimeMillis());
+                    return mask;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // the last record was cut short, i.e. by a crash while storing it.
+        }
+        return null;
+    }
+
+    /**
+     * Records the region reached by a complete fill of the drawing.
+     * @param drawing - the drawing that was filled.
+     * @param connectivity - the connectivity of the fill.
+     * @param mask - the pixels reached by the fill.
+     * @throws IOException - the cache file cannot be written.
+     */
+    public void store(Drawing drawing, Connectivity connectivity, SpanMask mask) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(mask.getByteSize());
+        mask.writeTo(buffer);
+        buffer.flip();
+        File file = fileOf(drawing, connectivity);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        evict(file);
+    }
+
+    // deletes the least recently used files until the cache fits its size limit.
+    private void evict(File keep) {
+        File[] files = _dir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > _maxBytes; i++) {
+            if (!files[i].equals(keep)) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+}
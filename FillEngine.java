@@ -0,0 +1,43 @@
+package ColoringBook.main;
+
+import java.awt.Color;
+
+import ColoringBook.graphics.Connectivity;
+import ColoringBook.graphics.Drawing;
+
+/**
+ * A strategy for filling the bright region around a seed pixel of a Drawing.
+ * Implementations are registered by name in FillEngines, such that the engine
+ * can be picked at runtime, and all report the same FillResult statistics.
+ */
+public interface FillEngine {
+
+    /**
+     * Code to be executed after each pixel painted by a fill, i.e. stepping the frame.
+     */
+    public interface PixelHook {
+        public void pixelPainted(int x, int y) throws InterruptedException;
+    }
+
+    public static final PixelHook NO_HOOK = (x, y) -> {};
+
+    /**
+     * Fills the bright region around the seed with the given color. Nothing is painted if the
+     * seed is outside the drawing or not bright. Each pixel is painted at most once, so the fill
+     * ends even when the color itself is bright. Stops early if the running thread is interrupted.
+     * @param drawing - the drawing to be filled.
+     * @param xSeed - x coordinate value of the seed.
+     * @param ySeed - y coordinate value of the seed.
+     * @param color - the Color value to be painted.
+     * @param connectivity - which pixels the fill spreads to from each painted pixel.
+     * @param hook - code to be executed after each painted pixel, or NO_HOOK.
+     * @return the pixels painted and the statistics of the fill.
+     * @throws InterruptedException - the running thread was interrupted, the fill is incomplete.
+     */
+    public FillResult fill(
+            Drawing drawing,
+            int xSeed, int ySeed,
+            Color color,
+            Connectivity connectivity,
+            PixelHook hook) throws InterruptedException;
+}
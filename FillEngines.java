@@ -0,0 +1,42 @@
+package ColoringBook.main;
+
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Registry of the available FillEngine implementations, by name.
+ * The "stack", "queue" and "recursive" engines are registered by default.
+ */
+public class FillEngines {
+    private static final TreeMap<String, FillEngine> engines = new TreeMap<String, FillEngine>();
+
+    static {
+        register("stack", new StackFillEngine());
+        register("queue", new QueueFillEngine());
+        register("recursive", new RecursiveFillEngine());
+    }
+
+    private FillEngines(){
+    }
+
+    public static synchronized void register(String name, FillEngine engine){
+        engines.put(name, engine);
+    }
+
+    /**
+     * Gets the engine registered under the given name.
+     * @throws IllegalArgumentException if no engine has that name.
+     */
+    public static synchronized FillEngine get(String name){
+        FillEngine engine = engines.get(name);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown fill engine: " + name);
+        }
+        return engine;
+    }
+
+    public static synchronized Set<String> getNames(){
+        return new TreeSet<String>(engines.keySet());
+    }
+}
@@ -0,0 +1,152 @@
+package ColoringBook.graphics;
+
+import java.awt.Color;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Encapsulates the rule deciding which pixel colors a fill is allowed to spread over.
+ * A FillPredicate is created by compiling an arbitrary rule over the 24-bit RGB space
+ * into a lookup table of 16M bits (2 MB). In return, testing a color against the rule
+ * costs a single indexed bit test, regardless of how complex the original rule is.
+ */
+public final class FillPredicate {
+
+    private static final int RGB_SPACE = 1 << 24;
+
+    // compiled on first use, outside of the FillPredicate class initialization.
+    private static class Defaults {
+        static final FillPredicate BRIGHT = brightness(220);
+    }
+
+    private final long[] _bits;
+    private long _id = 0;
+
+    private FillPredicate(long[] bits) {
+        _bits = bits;
+    }
+
+    /**
+     * Compiles the given rule into a FillPredicate by evaluating it once for every color
+     * of the 24-bit RGB space.
+     * @param rule - predicate over a packed 0xRRGGBB color value.
+     * @return the compiled FillPredicate.
+     */
+    public static FillPredicate compile(IntPredicate rule) {
+        long[] bits = new long[RGB_SPACE >>> 6];
+        // each word covers 64 consecutive colors, so words can be filled independently.
+        IntStream.range(0, bits.length).parallel().forEach(w -> {
+            long word = 0;
+            int rgbBase = w << 6;
+            for (int i = 0; i < 64; i++) {
+                if (rule.test(rgbBase | i)) {
+                    word |= 1L << i;
+                }
+            }
+            bits[w] = word;
+        });
+        return new FillPredicate(bits);
+    }
+
+    /**
+     * Gets the default rule of a Drawing: a color where each of the three color-components
+     * (R, G and B) have a value larger than 220.
+     * @return the shared default FillPredicate.
+     */
+    public static FillPredicate bright() {
+        return Defaults.BRIGHT;
+    }
+
+    /**
+     * Creates a FillPredicate accepting the colors where each of the three color-components
+     * (R, G and B) have a value larger than the given threshold.
+     * @param threshold - value each color-component must exceed, between 0 and 255.
+     * @return the compiled FillPredicate.
+     */
+    public static FillPredicate brightness(int threshold) {
+        return compile(rgb ->
+            ((rgb >> 16) & 0xFF) > threshold &&
+            ((rgb >> 8) & 0xFF) > threshold &&
+            (rgb & 0xFF) > threshold);
+    }
+
+    /**
+     * Creates a FillPredicate accepting the colors within the given CIE76 color distance
+     * (ΔE, in CIELAB space) of the reference color.
+     * @param reference - the reference color, typically the color of the fill seed pixel.
+     * @param deltaE - maximum accepted distance. A value of about 2.3 is barely noticeable.
+     * @return the compiled FillPredicate.
+     */
+    public static FillPredicate withinDeltaE(Color reference, double deltaE) {
+        double[] refLab = toLab(reference.getRGB());
+        double maxDistSq = deltaE * deltaE;
+        return compile(rgb -> {
+            double[] lab = toLab(rgb);
+            double dL = lab[0] - refLab[0];
+            double dA = lab[1] - refLab[1];
+            double dB = lab[2] - refLab[2];
+            return dL * dL + dA * dA + dB * dB <= maxDistSq;
+        });
+    }
+
+    /**
+     * Indicates whether the given color is accepted by this predicate.
+     * @param rgb - packed color value, as returned by BufferedImage.getRGB(). The alpha bits are ignored.
+     * @return true if the color is accepted, false otherwise.
+     */
+    public boolean test(int rgb) {
+        // the shift of a long only uses the lowest 6 bits of rgb.
+        return (_bits[(rgb & 0xFFFFFF) >>> 6] & (1L << rgb)) != 0;
+    }
+
+    /**
+     * Indicates whether the given color is accepted by this predicate.
+     * @param c - the Color value to be tested.
+     * @return true if the color is accepted, false otherwise.
+     */
+    public boolean test(Color c) {
+        return test(c.getRGB());
+    }
+
+    /**
+     * Gets a 64-bit hash of the colors accepted by this predicate. Predicates compiled from
+     * different rules accepting the same colors share the same id.
+     * @return the id of this predicate.
+     */
+    public long getId() {
+        if (_id == 0) {
+            long id = 0xCBF29CE484222325L;
+            for (long word : _bits) {
+                id = (id ^ word) * 0x100000001B3L;
+                id ^= id >>> 29;
+            }
+            _id = id;
+        }
+        return _id;
+    }
+
+    // Region: [Private] CIELAB conversion
+    private static final double[] LINEAR = new double[256];
+    static {
+        for (int i = 0; i < LINEAR.length; i++) {
+            double v = i / 255.0;
+            LINEAR[i] = (v <= 0.04045) ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    private static double labF(double t) {
+        return (t > 216.0 / 24389.0) ? Math.cbrt(t) : (24389.0 / 27.0 * t + 16.0) / 116.0;
+    }
+
+    private static double[] toLab(int rgb) {
+        double r = LINEAR[(rgb >> 16) & 0xFF];
+        double g = LINEAR[(rgb >> 8) & 0xFF];
+        double b = LINEAR[rgb & 0xFF];
+        // sRGB to XYZ (D65), normalized by the reference white.
+        double fx = labF((0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047);
+        double fy = labF(0.2126729 * r + 0.7151522 * g + 0.0721750 * b);
+        double fz = labF((0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883);
+        return new double[] { 116.0 * fy - 16.0, 500.0 * (fx - fy), 200.0 * (fy - fz) };
+    }
+    // EndRegion: [Private] CIELAB conversion
+}
@@ -0,0 +1,47 @@
+package ColoringBook.main;
+
+import java.util.BitSet;
+
+import ColoringBook.graphics.SpanMask;
+
+/**
+ * The outcome of a FillEngine run: the pixels painted, their count and the number of
+ * probes made. A probe is the examination of one in-bounds pixel: the seed, then every
+ * in-bounds neighbor of each painted pixel, whether or not it was already visited. The
+ * count hence grows with the connectivity, a FOUR fill of an open area probing about half
+ * as many pixels as an EIGHT fill. Comparing probes across engines and connectivities tells
+ * which is the cheapest for a given page.
+ */
+public class FillResult {
+    private final BitSet _painted;
+    private final int _width;
+    private final int _pixelsPainted;
+    private final long _probes;
+
+    public FillResult(BitSet newPainted, int newWidth, long newProbes){
+        _painted = newPainted;
+        _width = newWidth;
+        _pixelsPainted = newPainted.cardinality();
+        _probes = newProbes;
+    }
+
+    public int getPixelsPainted(){
+        return _pixelsPainted;
+    }
+
+    public long getProbes(){
+        return _probes;
+    }
+
+    /**
+     * Gets the painted pixels as spans, i.e. for caching or logging the fill.
+     */
+    public SpanMask getRegion(){
+        return SpanMask.fromBits(_painted, _width);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d pixels painted, %d probes", _pixelsPainted, _probes);
+    }
+}
@@ -0,0 +1,59 @@
+package ColoringBook.main;
+
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+
+import ColoringBook.graphics.Connectivity;
+import ColoringBook.graphics.Drawing;
+
+/**
+ * Base of the fill engines keeping the pixels still to be expanded in a frontier.
+ * Subclasses only decide which pixel of the frontier is expanded next.
+ */
+abstract class FrontierFillEngine implements FillEngine {
+
+    protected abstract WorkItem next(ArrayDeque<WorkItem> frontier);
+
+    @Override
+    public FillResult fill(
+            Drawing drawing,
+            int xSeed, int ySeed,
+            Color color,
+            Connectivity connectivity,
+            PixelHook hook) throws InterruptedException {
+        ArrayDeque<WorkItem> frontier = new ArrayDeque<WorkItem>();
+        BitSet visited = new BitSet();
+        long probes = 0;
+        WorkItem w = new WorkItem(xSeed, ySeed, drawing);
+        if (w.isValid()) {
+            probes++;
+            if (w.isBright()) {
+                visited.set(w.getIndex());
+                w.Paint(color);
+                hook.pixelPainted(xSeed, ySeed);
+                frontier.add(w);
+            }
+        }
+        while(!frontier.isEmpty()){
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            WorkItem pix = next(frontier);
+            for(int k = 0; k < connectivity.size(); k++){
+                WorkItem n = new WorkItem(pix.getX() + connectivity.dx(k), pix.getY() + connectivity.dy(k), drawing);
+                if(!n.isValid()){
+                    continue;
+                }
+                probes++;
+                if(!visited.get(n.getIndex()) && n.isBright()){
+                    visited.set(n.getIndex());
+                    n.Paint(color);
+                    hook.pixelPainted(n.getX(), n.getY());
+                    frontier.add(n);
+                }
+            }
+        }
+        return new FillResult(visited, drawing.getWidth(), probes);
+    }
+}
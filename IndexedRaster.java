@@ -0,0 +1,296 @@
+package ColoringBook.graphics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Pixel storage of a Drawing in indexed-color mode: one byte per pixel, referencing an entry
+ * of a palette of up to 256 colors. Bright and dark classification of each palette entry is
+ * precomputed, so classifying a pixel is a single table lookup. The RGB view needed for
+ * display or export is an IndexColorModel image sharing the same pixel bytes, such that
+ * colors are only expanded when the image is actually drawn or written.
+ */
+class IndexedRaster {
+
+    private static final int MAX_COLORS = 256;
+    // colors taken by the source image, the remaining entries are left for the fill colors.
+    private static final int MAX_IMAGE_COLORS = 224;
+
+    private static final int CLASS_MID = 0;
+    private static final int CLASS_BRIGHT = 1;
+    private static final int CLASS_DARK = 2;
+
+    private final int _width;
+    private final int _height;
+    private final byte[] _pixels;
+    private final int[] _palette = new int[MAX_COLORS];
+    private int _paletteSize = 0;
+    private final HashMap<Integer, Integer> _paletteIndex = new HashMap<Integer, Integer>();
+    // last color looked up by indexOf(), as fills paint the same color pixel after pixel.
+    private int _lastRGB = 0;
+    private int _lastIndex = -1;
+    private final boolean[] _bright = new boolean[MAX_COLORS];
+    private final boolean[] _dark = new boolean[MAX_COLORS];
+    private FillPredicate _fillPredicate;
+    private BufferedImage _image = null;
+
+    /**
+     * Creates the indexed representation of the source image. If the image has more colors
+     * than the palette can hold, they are quantized to the most frequent ones without ever
+     * changing whether a pixel is bright, dark or neither.
+     */
+    IndexedRaster(BufferedImage source, FillPredicate fillPredicate) {
+        _width = source.getWidth();
+        _height = source.getHeight();
+        _pixels = new byte[_width * _height];
+        _fillPredicate = fillPredicate;
+
+        int[] row = new int[_width];
+        if (!loadExact(source, row)) {
+            loadQuantized(source, row);
+        }
+    }
+
+    // Region: [Private] Palette management
+    private int classOf(int rgb) {
+        if (_fillPredicate.test(rgb)) {
+            return CLASS_BRIGHT;
+        }
+        return Drawing.isDarkRGB(rgb) ? CLASS_DARK : CLASS_MID;
+    }
+
+    private int addColor(int rgb) {
+        int index = _paletteSize++;
+        _palette[index] = 0xFF000000 | rgb;
+        _bright[index] = _fillPredicate.test(rgb);
+        _dark[index] = Drawing.isDarkRGB(rgb);
+        _paletteIndex.put(rgb, index);
+        _image = null;
+        return index;
+    }
+
+    private int nearest(int rgb, int cls) {
+        int best = -1;
+        long bestDist = Long.MAX_VALUE;
+        boolean bestSameClass = false;
+        for (int i = 0; i < _paletteSize; i++) {
+            int entryClass = _bright[i] ? CLASS_BRIGHT : (_dark[i] ? CLASS_DARK : CLASS_MID);
+            boolean sameClass = (entryClass == cls);
+            if (bestSameClass && !sameClass) {
+                continue;
+            }
+            int dr = ((_palette[i] >> 16) & 0xFF) - ((rgb >> 16) & 0xFF);
+            int dg = ((_palette[i] >> 8) & 0xFF) - ((rgb >> 8) & 0xFF);
+            int db = (_palette[i] & 0xFF) - (rgb & 0xFF);
+            long dist = dr * dr + dg * dg + db * db;
+            if ((sameClass && !bestSameClass) || dist < bestDist) {
+                best = i;
+                bestDist = dist;
+                bestSameClass = sameClass;
+            }
+        }
+        return best;
+    }
+
+    private int indexOf(int rgb) {
+        rgb &= 0xFFFFFF;
+        if (_lastIndex >= 0 && rgb == _lastRGB) {
+            return _lastIndex;
+        }
+        Integer index = _paletteIndex.get(rgb);
+        if (index == null) {
+            if (_paletteSize < MAX_COLORS) {
+                index = addColor(rgb);
+            } else {
+                // palette is full, remember the closest entry as an alias of this color.
+                index = nearest(rgb, classOf(rgb));
+                _paletteIndex.put(rgb, index);
+            }
+        }
+        _lastRGB = rgb;
+        _lastIndex = index;
+        return index;
+    }
+
+    private boolean loadExact(BufferedImage source, int[] row) {
+        for (int y = 0, i = 0; y < _height; y++) {
+            source.getRGB(0, y, _width, 1, row, 0, _width);
+            int lastRGB = -1;
+            int lastIndex = -1;
+            for (int x = 0; x < _width; x++, i++) {
+                int rgb = row[x] & 0xFFFFFF;
+                if (rgb != lastRGB) {
+                    Integer index = _paletteIndex.get(rgb);
+                    if (index == null) {
+                        if (_paletteSize == MAX_IMAGE_COLORS) {
+                            _paletteSize = 0;
+                            _paletteIndex.clear();
+                            return false;
+                        }
+                        index = addColor(rgb);
+                    }
+                    lastRGB = rgb;
+                    lastIndex = index;
+                }
+                _pixels[i] = (byte)lastIndex;
+            }
+        }
+        return true;
+    }
+
+    private void loadQuantized(BufferedImage source, int[] row) {
+        // histogram of the colors reduced to 5 bits per component, kept apart per class.
+        int binCount = 3 << 15;
+        int[] counts = new int[binCount];
+        long[] sums = new long[3 * binCount];
+        int[] samples = new int[binCount];
+        for (int y = 0; y < _height; y++) {
+            source.getRGB(0, y, _width, 1, row, 0, _width);
+            for (int x = 0; x < _width; x++) {
+                int rgb = row[x] & 0xFFFFFF;
+                int bin = binOf(rgb);
+                if (counts[bin]++ == 0) {
+                    samples[bin] = rgb;
+                }
+                sums[3 * bin] += (rgb >> 16) & 0xFF;
+                sums[3 * bin + 1] += (rgb >> 8) & 0xFF;
+                sums[3 * bin + 2] += rgb & 0xFF;
+            }
+        }
+
+        ArrayList<Integer> bins = new ArrayList<Integer>();
+        for (int bin = 0; bin < binCount; bin++) {
+            if (counts[bin] > 0) {
+                bins.add(bin);
+            }
+        }
+        bins.sort((a, b) -> counts[b] - counts[a]);
+
+        // the most frequent bin of each class goes first, so that every class is represented.
+        ArrayList<Integer> chosen = new ArrayList<Integer>();
+        boolean[] isChosen = new boolean[binCount];
+        boolean[] classTaken = new boolean[3];
+        for (int bin : bins) {
+            if (!classTaken[bin >> 15]) {
+                classTaken[bin >> 15] = true;
+                isChosen[bin] = true;
+                chosen.add(bin);
+            }
+        }
+        for (int bin : bins) {
+            if (chosen.size() == MAX_IMAGE_COLORS) {
+                break;
+            }
+            if (!isChosen[bin]) {
+                isChosen[bin] = true;
+                chosen.add(bin);
+            }
+        }
+        for (int bin : chosen) {
+            int n = counts[bin];
+            int rgb = (int)(sums[3 * bin] / n) << 16
+                    | (int)(sums[3 * bin + 1] / n) << 8
+                    | (int)(sums[3 * bin + 2] / n);
+            if (classOf(rgb) != (bin >> 15)) {
+                rgb = samples[bin];
+            }
+            if (!_paletteIndex.containsKey(rgb)) {
+                addColor(rgb);
+            }
+        }
+
+        byte[] binIndex = new byte[binCount];
+        for (int bin : bins) {
+            binIndex[bin] = (byte)nearest(samples[bin], bin >> 15);
+        }
+        for (int y = 0, i = 0; y < _height; y++) {
+            source.getRGB(0, y, _width, 1, row, 0, _width);
+            for (int x = 0; x < _width; x++, i++) {
+                _pixels[i] = binIndex[binOf(row[x] & 0xFFFFFF)];
+            }
+        }
+    }
+
+    private int binOf(int rgb) {
+        int bin = ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+        return (classOf(rgb) << 15) | bin;
+    }
+    // EndRegion: [Private] Palette management
+
+    // Region: [Internal] Pixel access
+    BufferedImage getImage() {
+        BufferedImage image = _image;
+        if (image == null) {
+            IndexColorModel colorModel = new IndexColorModel(8, MAX_COLORS, _palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+            WritableRaster raster = Raster.createInterleavedRaster(
+                    new DataBufferByte(_pixels, _pixels.length),
+                    _width, _height, _width, 1, new int[] {0}, null);
+            image = new BufferedImage(colorModel, raster, false, null);
+            _image = image;
+        }
+        return image;
+    }
+
+    // copies the pixel bytes and the palette, a quarter of the size of an RGB copy.
+    BufferedImage copyImage() {
+        IndexColorModel colorModel = new IndexColorModel(8, MAX_COLORS, _palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+        byte[] pixels = Arrays.copyOf(_pixels, _pixels.length);
+        WritableRaster raster = Raster.createInterleavedRaster(
+                new DataBufferByte(pixels, pixels.length),
+                _width, _height, _width, 1, new int[] {0}, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    void setFillPredicate(FillPredicate fillPredicate) {
+        _fillPredicate = fillPredicate;
+        for (int i = 0; i < _paletteSize; i++) {
+            _bright[i] = fillPredicate.test(_palette[i]);
+        }
+    }
+
+    int getRGB(int x, int y) {
+        return _palette[_pixels[y * _width + x] & 0xFF];
+    }
+
+    void setRGB(int x, int y, int rgb) {
+        _pixels[y * _width + x] = (byte)indexOf(rgb);
+    }
+
+    void fillSpan(int y, int x0, int x1, int rgb) {
+        Arrays.fill(_pixels, y * _width + x0, y * _width + x1 + 1, (byte)indexOf(rgb));
+    }
+
+    boolean isBright(int x, int y) {
+        return _bright[_pixels[y * _width + x] & 0xFF];
+    }
+
+    boolean isDark(int x, int y) {
+        return _dark[_pixels[y * _width + x] & 0xFF];
+    }
+
+    void getRow(int y, int[] rgbRow) {
+        for (int x = 0, i = y * _width; x < _width; x++, i++) {
+            rgbRow[x] = _palette[_pixels[i] & 0xFF];
+        }
+    }
+
+    void setRow(int y, int[] rgbRow) {
+        int lastRGB = 0;
+        int lastIndex = -1;
+        for (int x = 0, i = y * _width; x < _width; x++, i++) {
+            if (lastIndex < 0 || rgbRow[x] != lastRGB) {
+                lastRGB = rgbRow[x];
+                lastIndex = indexOf(lastRGB);
+            }
+            _pixels[i] = (byte)lastIndex;
+        }
+    }
+    // EndRegion: [Internal] Pixel access
+}
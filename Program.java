@@ -1,13 +1,17 @@
 package ColoringBook.main;
 import java.awt.Color;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
 
+import ColoringBook.graphics.Connectivity;
 import ColoringBook.graphics.DrawingFrame;
 import ColoringBook.graphics.Drawing;
+import ColoringBook.graphics.DrawingPreview;
+import ColoringBook.graphics.FillCache;
+import ColoringBook.graphics.RegionMap;
+import ColoringBook.graphics.SessionLog;
+import ColoringBook.graphics.SpanMask;
 
 public class Program {
     
@@ -18,6 +22,34 @@ public class Program {
     private static Drawing _drawing;
     private static DrawingFrame _frame;
     
+    /**
+     * Colors used, in turn, by the fills started from mouse clicks.
+     */
+    private static final Color[] PALETTE = {
+            Color.pink, Color.red, Color.green, Color.orange, Color.cyan, Color.magenta };
+    private static int _clickCount = 0;
+    
+    /**
+     * On-disk cache of the regions reached by the fills started from mouse clicks,
+     * such that coloring the same page again only repaints the cached spans.
+     */
+    private static final File FILL_CACHE_DIR = new File(System.getProperty("user.home"), ".coloringbook/fill-cache");
+    private static final long FILL_CACHE_BYTES = 64L << 20;
+    private static FillCache _fillCache = null;
+    
+    /**
+     * Log of the fills made on the drawing, such that the coloring progress
+     * survives the program exiting or crashing.
+     */
+    private static final File SESSION_DIR = new File(System.getProperty("user.home"), ".coloringbook/sessions");
+    private static SessionLog _session = null;
+    
+    /**
+     * Which pixels the fills spread to: EIGHT also crosses diagonal gaps in the outlines,
+     * FOUR keeps the fills inside them and probes fewer neighbors.
+     */
+    private static volatile Connectivity _connectivity = Connectivity.EIGHT;
+    
     /**
      * Demonstrates a simple alteration to the drawing:
      * On a square section of the image, from top-left: (40,30) to bottom-right (140, 130)
@@ -41,29 +73,68 @@ public class Program {
      * Initializes the static Drawing (_drawing) with an image of your choice,
      * then initializes the static DrawingFrame (_frame) loading into it the new drawing.
      * Subsequently the frame is opened on the screen then the drawing is painted upon
-     * and displayed as it is being modified before the program terminates. 
+     * and displayed as it is being modified before the program terminates.<p>
+     * Arguments: --indexed keeps the drawing in indexed-color mode, one byte per pixel,
+     * such that larger pages can be colored in the same heap. --connectivity=4 or
+     * --connectivity=8 (default) sets the connectivity of the fills. --auto-color colors
+     * the whole page from the click palette instead of running the demo fills.
      */
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("Welcome to the Coloring Festival!");
+        boolean indexed = false;
+        boolean autoColor = false;
+        for (String arg : args) {
+            if (arg.equals("--indexed")) {
+                indexed = true;
+            } else if (arg.equals("--auto-color")) {
+                autoColor = true;
+            } else if (arg.equals("--connectivity=4")) {
+                setConnectivity(Connectivity.FOUR);
+            } else if (arg.equals("--connectivity=8")) {
+                setConnectivity(Connectivity.EIGHT);
+            } else {
+                System.out.println("Ignoring unknown argument: " + arg);
+            }
+        }
         
-        // pick a drawing
-        _drawing = new Drawing("ColoringBook/drawings/bird.jpg");
+        // pick a drawing, decoded while its frame is being built
+        CompletableFuture<Drawing> drawing = Drawing.loadAsync("ColoringBook/drawings/bird.jpg", indexed);
         
         // put it in a frame
-        _frame = new DrawingFrame(_drawing);
+        _frame = new DrawingFrame(drawing);
+        _drawing = drawing.join();
+        // build the fill preview now, on the thread painting the demo fills, rather than on the first click.
+        _drawing.getPreview();
+        try {
+            _fillCache = new FillCache(FILL_CACHE_DIR, FILL_CACHE_BYTES);
+        } catch (IOException e) {
+            System.out.println("Fill cache disabled: " + e.getMessage());
+        }
+        try {
+            _session = new SessionLog(SESSION_DIR, _drawing);
+            System.out.println("Fills restored from the last session: " + _session.getRestoredCount());
+        } catch (IOException e) {
+            System.out.println("Session log disabled: " + e.getMessage());
+        }
 
         // put the frame on display and stop to admire it.
         _frame.open();
         _frame.step();
         
         // make some change to the drawing, then stop for applause.
-        stack(130, 140, Color.pink);
-        queue(113, 211, Color.red);
-
         try {
-            recursive(95,100, Color.green);
-        } catch (Exception e) {
-            System.out.println("Error");
+            if (autoColor) {
+                autoColor(PALETTE);
+            } else {
+                // the recursive engine overflows the default stack on regions this large.
+                stack(130, 140, Color.pink);
+                queue(113, 211, Color.red);
+                stack(95,100, Color.green);
+            }
+        } finally {
+            // let the user fill the regions they click on. Not any earlier: click fills run on
+            // the frame's fill thread and must not paint the drawing while the demo fills above do.
+            _frame.setClickHook((x, y) -> previewAndFill(x, y, PALETTE[_clickCount++ % PALETTE.length]));
         }
         _frame.stop();
         
@@ -73,69 +144,137 @@ public class Program {
         System.out.println("Well done, goodbye!");
     }
 
-    public static void recursive(int xSeed, int ySeed, Color color) throws InterruptedException{
-        for (int x = xSeed-1; x<xSeed+2; x++){
-            for(int y = ySeed-1; y<ySeed+2; y++){
-                if(_drawing.isValidPixel(x,y)&&_drawing.isBrightPixel(x,y)){
-                    _drawing.setPixel(xSeed, ySeed,color);
-                    _frame.step(1);
-                    
-                    recursive(x,y,color);
-                }
+    /**
+     * Sets which pixels the fills spread to, from the next fill on.
+     * @param connectivity - FOUR to keep the fills inside outlines with diagonal gaps, or EIGHT.
+     */
+    public static void setConnectivity(Connectivity connectivity) {
+        _connectivity = connectivity;
+    }
+
+    /**
+     * Colors the whole drawing in one pass: every bright region is labeled, then given one of
+     * the palette colors such that regions adjacent across an outline get different colors.
+     * Regions are connected as the click fills are, see setConnectivity().
+     */
+    public static void autoColor(Color... palette) {
+        autoColor(_drawing, _connectivity, palette);
+        _frame.repaint();
+    }
+
+    /**
+     * Colors the whole given drawing in one pass, as autoColor(Color...) does.
+     * Regions emptied by line-art edits get no color.
+     * @param connectivity - the connectivity of the pixels of a region.
+     */
+    public static void autoColor(Drawing drawing, Connectivity connectivity, Color... palette) {
+        RegionMap regions = drawing.getRegionMap(connectivity);
+        int[] colorIndex = regions.greedyColoring(palette.length);
+        Color[] regionColors = new Color[regions.getRegionCount() + 1];
+        for (int r = 1; r < regionColors.length; r++) {
+            if (colorIndex[r] >= 0) {
+                regionColors[r] = palette[colorIndex[r]];
             }
         }
+        regions.paint(regionColors);
     }
 
-    public static void stack(int xSeed, int ySeed, Color color)throws InterruptedException{
+    /**
+     * Shows the fill on the drawing preview first, which is nearly instant even on huge pages,
+     * then paints the exact fill beneath it, visible through the translucent preview as it progresses.
+     */
+    public static void previewAndFill(int xSeed, int ySeed, Color color) throws InterruptedException {
+        Connectivity connectivity = _connectivity;
+        DrawingPreview preview = _drawing.getPreview();
+        _frame.showPreview(preview, preview.fill(xSeed, ySeed, connectivity), color);
+        try {
+            fill(xSeed, ySeed, color, connectivity);
+        } finally {
+            _frame.clearPreview();
+        }
+    }
+
+    /**
+     * Fills the bright region around the seed without stepping through the frame, such that
+     * it can run in the background. Stops early if the running thread is interrupted.
+     * Regions already reached by a previous fill of the same page are painted from the fill cache.
+     * Completed fills are recorded in the session log.
+     */
+    public static void fill(int xSeed, int ySeed, Color color) throws InterruptedException {
+        fill(xSeed, ySeed, color, _connectivity);
+    }
 
-        Stack<WorkItem> s = new Stack<WorkItem>();
+    private static void fill(int xSeed, int ySeed, Color color, Connectivity connectivity) throws InterruptedException {
         WorkItem w = new WorkItem(xSeed, ySeed, _drawing);
-        w.Paint(color);
-        s.push(w);
-        while(!s.isEmpty()){
-            WorkItem pix = s.pop();
-            for(WorkItem n: getNeighbors(pix)){
-                if(n.isBright() && n.isValid()){
-                    _frame.step(1);
-                    n.Paint(color);
-                    s.push(n);
-                }
-            }
+        if (!w.isValid() || !w.isBright()) {
+            return;
         }
+        SpanMask cached = cacheLookup(connectivity, xSeed, ySeed);
+        if (cached != null) {
+            cached.paint(_drawing, color);
+            sessionRecord(cached, color);
+            return;
+        }
+        FillResult result = FillEngines.get("queue").fill(
+                _drawing, xSeed, ySeed, color, connectivity, FillEngine.NO_HOOK);
+        SpanMask region = result.getRegion();
+        cacheStore(connectivity, region);
+        sessionRecord(region, color);
     }
 
-    public static void queue(int xSeed, int ySeed, Color color) throws InterruptedException{
+    private static SpanMask cacheLookup(Connectivity connectivity, int x, int y) {
+        if (_fillCache != null) {
+            try {
+                return _fillCache.lookup(_drawing, connectivity, x, y);
+            } catch (IOException e) {
+                System.out.println("Fill cache lookup failed: " + e.getMessage());
+            }
+        }
+        return null;
+    }
 
-        Queue<WorkItem> q = new LinkedList<WorkItem>();
-        WorkItem w = new WorkItem(xSeed, ySeed, _drawing);
-        w.Paint(color);
-        q.add(w);
-        while(!q.isEmpty()){
-            WorkItem pix = q.remove();
-            for(WorkItem n: getNeighbors(pix)){
-                if(n.isBright() && n.isValid()){
-                    _frame.step(1);
-                    n.Paint(color);
-                    q.add(n);
-                }
+    private static void cacheStore(Connectivity connectivity, SpanMask region) {
+        if (_fillCache != null) {
+            try {
+                _fillCache.store(_drawing, connectivity, region);
+            } catch (IOException e) {
+                System.out.println("Fill cache store failed: " + e.getMessage());
             }
         }
     }
-    
 
-    private static ArrayList<WorkItem> getNeighbors(WorkItem pix){
-        ArrayList<WorkItem> neighbors = new ArrayList<WorkItem>();
-        for(int x = pix.getX()-1; x<pix.getX()+2; x++){
-            for(int y = pix.getY()-1; y<pix.getY()+2; y++){
-                //exlcuding the current pixel
-                if(pix.getX() == x && pix.getY() == y){
-                    continue;
-                }
-                neighbors.add(new WorkItem(x, y, pix.getDrawing()));
-                    
+    private static void sessionRecord(SpanMask region, Color color) {
+        if (_session != null) {
+            try {
+                _session.record(region, color);
+            } catch (IOException e) {
+                System.out.println("Session log disabled: " + e.getMessage());
+                _session = null;
             }
         }
-        return neighbors;
+    }
+
+    /**
+     * Fills the bright region around the seed with the named engine from FillEngines,
+     * stepping through the frame after each pixel painted.
+     */
+    public static FillResult fill(String engine, int xSeed, int ySeed, Color color) throws InterruptedException {
+        FillResult result = FillEngines.get(engine).fill(
+                _drawing, xSeed, ySeed, color, _connectivity, (x, y) -> _frame.step(1));
+        System.out.println(engine + " fill: " + result);
+        return result;
+    }
+
+    public static void recursive(int xSeed, int ySeed, Color color) throws InterruptedException{
+        fill("recursive", xSeed, ySeed, color);
+    }
+
+    public static void stack(int xSeed, int ySeed, Color color)throws InterruptedException{
+        fill("stack", xSeed, ySeed, color);
+    }
+
+    public static void queue(int xSeed, int ySeed, Color color) throws InterruptedException{
+        fill("queue", xSeed, ySeed, color);
     }
 
 }
@@ -0,0 +1,15 @@
+package ColoringBook.main;
+
+import java.util.ArrayDeque;
+
+/**
+ * Breadth-first fill: pixels are expanded in the order they were painted,
+ * so the fill grows as a wave front around the seed.
+ */
+public class QueueFillEngine extends FrontierFillEngine {
+
+    @Override
+    protected WorkItem next(ArrayDeque<WorkItem> frontier){
+        return frontier.removeFirst();
+    }
+}
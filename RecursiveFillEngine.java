@@ -0,0 +1,58 @@
+package ColoringBook.main;
+
+import java.awt.Color;
+import java.util.BitSet;
+
+import ColoringBook.graphics.Connectivity;
+import ColoringBook.graphics.Drawing;
+
+/**
+ * Depth-first fill through recursive calls. The recursion depth grows with the region,
+ * so large regions end with a StackOverflowError: prefer the stack engine for those.
+ */
+public class RecursiveFillEngine implements FillEngine {
+
+    private static class State {
+        Drawing drawing;
+        Color color;
+        Connectivity connectivity;
+        PixelHook hook;
+        BitSet visited = new BitSet();
+        long probes = 0;
+    }
+
+    @Override
+    public FillResult fill(
+            Drawing drawing,
+            int xSeed, int ySeed,
+            Color color,
+            Connectivity connectivity,
+            PixelHook hook) throws InterruptedException {
+        State state = new State();
+        state.drawing = drawing;
+        state.color = color;
+        state.connectivity = connectivity;
+        state.hook = hook;
+        visit(state, new WorkItem(xSeed, ySeed, drawing));
+        return new FillResult(state.visited, drawing.getWidth(), state.probes);
+    }
+
+    private void visit(State state, WorkItem pix) throws InterruptedException {
+        if(!pix.isValid()){
+            return;
+        }
+        state.probes++;
+        if(state.visited.get(pix.getIndex()) || !pix.isBright()){
+            return;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        state.visited.set(pix.getIndex());
+        pix.Paint(state.color);
+        state.hook.pixelPainted(pix.getX(), pix.getY());
+        for(int k = 0; k < state.connectivity.size(); k++){
+            visit(state, new WorkItem(pix.getX() + state.connectivity.dx(k), pix.getY() + state.connectivity.dy(k), state.drawing));
+        }
+    }
+}
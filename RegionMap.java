@@ -0,0 +1,510 @@
+package ColoringBook.graphics;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Encapsulates the partitioning of a Drawing into its bright regions. A RegionMap object
+ * can be created only by providing the Drawing to be partitioned and the Connectivity of its
+ * pixels as arguments to its constructor.
+ * In return, the object can be used for looking up the region of any pixel, for finding
+ * the regions adjacent to each other across the dark outlines and for painting all the
+ * regions of the drawing in one bulk pass.<p>
+ * Regions are numbered from 1 to getRegionCount(). Pixels not accepted by the drawing's
+ * FillPredicate (the outlines) belong to no region and are reported as region 0.<p>
+ * Once built, the regions reflect the line art rather than the current colors: painting
+ * a region doesn't remove it, while editing the outlines through Drawing.drawLine() splits
+ * or merges only the regions touching the edited pixels. Region numbers freed by a merge
+ * are not reused, so after edits some numbers up to getRegionCount() may be empty.
+ */
+public class RegionMap {
+
+    private final Drawing _drawing;
+    private final Connectivity _connectivity;
+    private final int _width;
+    private final int _height;
+    private final int[] _labels;
+    private int _regionCount = 0;
+    private int[][] _neighbors = null;
+    // bounding box of each region, used to confine the work of incremental updates.
+    private int[] _minX = new int[0];
+    private int[] _minY = new int[0];
+    private int[] _maxX = new int[0];
+    private int[] _maxY = new int[0];
+
+    /**
+     * Creates an instance of a RegionMap object by labeling every bright region of the given
+     * drawing, where two bright pixels are in the same region if they are connected, as the
+     * pixels of a fill are. Outlines are crossed the same way when finding adjacent regions.
+     * @param drawing - the drawing to be partitioned.
+     * @param connectivity - the connectivity of the pixels of a region.
+     */
+    public RegionMap(Drawing drawing, Connectivity connectivity) {
+        _drawing = drawing;
+        _connectivity = connectivity;
+        _width = drawing.getWidth();
+        _height = drawing.getHeight();
+        _labels = new int[_width * _height];
+        label();
+    }
+
+    // Region: [Private] Region labeling
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    // joins the two provisional labels (0 meaning none), keeping the smaller root.
+    private static int union(int[] parent, int a, int b) {
+        if (b == 0) {
+            return a;
+        }
+        b = find(parent, b);
+        if (a == 0 || a == b) {
+            return b;
+        }
+        if (a < b) {
+            parent[b] = a;
+            return a;
+        }
+        parent[a] = b;
+        return b;
+    }
+
+    private void label() {
+        FillPredicate fillPredicate = _drawing.getFillPredicate();
+        boolean diagonals = (_connectivity == Connectivity.EIGHT);
+        int[] parent = new int[256];
+        int nextLabel = 1;
+        int[] row = new int[_width];
+
+        // first pass: provisional labels from the already visited W and N neighbors,
+        // as well as NW and NE when diagonals connect.
+        for (int y = 0, i = 0; y < _height; y++) {
+            _drawing.getRow(y, row);
+            for (int x = 0; x < _width; x++, i++) {
+                if (!fillPredicate.test(row[x])) {
+                    continue;
+                }
+                int l = 0;
+                if (x > 0) {
+                    l = union(parent, l, _labels[i - 1]);
+                }
+                if (y > 0) {
+                    int up = i - _width;
+                    if (diagonals && x > 0) {
+                        l = union(parent, l, _labels[up - 1]);
+                    }
+                    l = union(parent, l, _labels[up]);
+                    if (diagonals && x < _width - 1) {
+                        l = union(parent, l, _labels[up + 1]);
+                    }
+                }
+                if (l == 0) {
+                    if (nextLabel == parent.length) {
+                        parent = Arrays.copyOf(parent, parent.length * 2);
+                    }
+                    parent[nextLabel] = nextLabel;
+                    l = nextLabel++;
+                }
+                _labels[i] = l;
+            }
+        }
+
+        // second pass: roots are always the smallest label of their set, so a single
+        // ascending walk assigns the final, compact region numbers.
+        int[] region = new int[nextLabel];
+        for (int l = 1; l < nextLabel; l++) {
+            int root = find(parent, l);
+            region[l] = (root == l) ? ++_regionCount : region[root];
+        }
+        ensureBoundsCapacity();
+        for (int y = 0, i = 0; y < _height; y++) {
+            for (int x = 0; x < _width; x++, i++) {
+                _labels[i] = region[_labels[i]];
+                extendBounds(_labels[i], x, y);
+            }
+        }
+    }
+
+    private void ensureBoundsCapacity() {
+        int oldLength = _minX.length;
+        if (oldLength > _regionCount) {
+            return;
+        }
+        int newLength = Math.max(_regionCount + 1, oldLength * 2);
+        _minX = Arrays.copyOf(_minX, newLength);
+        _minY = Arrays.copyOf(_minY, newLength);
+        _maxX = Arrays.copyOf(_maxX, newLength);
+        _maxY = Arrays.copyOf(_maxY, newLength);
+        for (int r = oldLength; r < newLength; r++) {
+            clearBounds(r);
+        }
+    }
+
+    private void clearBounds(int region) {
+        _minX[region] = Integer.MAX_VALUE;
+        _minY[region] = Integer.MAX_VALUE;
+        _maxX[region] = -1;
+        _maxY[region] = -1;
+    }
+
+    private void extendBounds(int region, int x, int y) {
+        _minX[region] = Math.min(_minX[region], x);
+        _minY[region] = Math.min(_minY[region], y);
+        _maxX[region] = Math.max(_maxX[region], x);
+        _maxY[region] = Math.max(_maxY[region], y);
+    }
+    // EndRegion: [Private] Region labeling
+
+    // Region: [Internal] Incremental updates
+    /**
+     * Updates the regions after the given pixels of the drawing were redrawn. Each edited
+     * pixel is re-evaluated against the FillPredicate, then only the regions touching the
+     * edited pixels are relabeled, within their bounding boxes.
+     * @return the regions covering the relabeled area.
+     */
+    int[] update(int[] edited, int editedCount) {
+        FillPredicate fillPredicate = _drawing.getFillPredicate();
+
+        // regions touching the edit, and the area they span together with the edit.
+        boolean[] affected = new boolean[_regionCount + 1];
+        int[] affectedList = new int[16];
+        int affectedCount = 0;
+        int x0 = _width, y0 = _height, x1 = -1, y1 = -1;
+        for (int e = 0; e < editedCount; e++) {
+            int ex = edited[e] % _width;
+            int ey = edited[e] / _width;
+            // the edited pixel itself, then its neighbors.
+            for (int k = -1; k < _connectivity.size(); k++) {
+                int x = (k < 0) ? ex : ex + _connectivity.dx(k);
+                int y = (k < 0) ? ey : ey + _connectivity.dy(k);
+                if (x < 0 || x >= _width || y < 0 || y >= _height) {
+                    continue;
+                }
+                int l = _labels[y * _width + x];
+                if (l > 0 && !affected[l]) {
+                    affected[l] = true;
+                    if (affectedCount == affectedList.length) {
+                        affectedList = Arrays.copyOf(affectedList, affectedCount * 2);
+                    }
+                    affectedList[affectedCount++] = l;
+                }
+            }
+            x0 = Math.min(x0, ex);
+            y0 = Math.min(y0, ey);
+            x1 = Math.max(x1, ex);
+            y1 = Math.max(y1, ey);
+        }
+        for (int a = 0; a < affectedCount; a++) {
+            int l = affectedList[a];
+            x0 = Math.min(x0, _minX[l]);
+            y0 = Math.min(y0, _minY[l]);
+            x1 = Math.max(x1, _maxX[l]);
+            y1 = Math.max(y1, _maxY[l]);
+        }
+        if (x1 < 0) {
+            return new int[0];
+        }
+
+        // mark the pixels to relabel as pending (-1), remembering their previous region.
+        int areaWidth = x1 - x0 + 1;
+        int[] previous = new int[areaWidth * (y1 - y0 + 1)];
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0, i = y * _width + x0; x <= x1; x++, i++) {
+                int l = _labels[i];
+                if (l > 0 && affected[l]) {
+                    previous[(y - y0) * areaWidth + (x - x0)] = l;
+                    _labels[i] = -1;
+                }
+            }
+        }
+        for (int e = 0; e < editedCount; e++) {
+            int ex = edited[e] % _width;
+            int ey = edited[e] / _width;
+            _labels[edited[e]] = fillPredicate.test(_drawing.getPixel(ex, ey).getRGB()) ? -1 : 0;
+        }
+        for (int a = 0; a < affectedCount; a++) {
+            clearBounds(affectedList[a]);
+        }
+
+        // flood each pending component. The first component holding pixels of a previous
+        // region keeps its number, components split off from it get new numbers.
+        boolean[] claimed = new boolean[_regionCount + 1];
+        int[] component = new int[256];
+        int[] result = new int[16];
+        int resultCount = 0;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int seed = y * _width + x;
+                if (_labels[seed] != -1) {
+                    continue;
+                }
+                int size = 0;
+                int label = 0;
+                component[size++] = seed;
+                _labels[seed] = -2;
+                for (int c = 0; c < size; c++) {
+                    int i = component[c];
+                    int cx = i % _width;
+                    int cy = i / _width;
+                    int p = previous[(cy - y0) * areaWidth + (cx - x0)];
+                    if (label == 0 && p > 0 && !claimed[p]) {
+                        label = p;
+                        claimed[p] = true;
+                    }
+                    for (int k = 0; k < _connectivity.size(); k++) {
+                        int nx = cx + _connectivity.dx(k);
+                        int ny = cy + _connectivity.dy(k);
+                        if (nx < x0 || nx > x1 || ny < y0 || ny > y1) {
+                            continue;
+                        }
+                        int j = ny * _width + nx;
+                        if (_labels[j] == -1) {
+                            _labels[j] = -2;
+                            if (size == component.length) {
+                                component = Arrays.copyOf(component, size * 2);
+                            }
+                            component[size++] = j;
+                        }
+                    }
+                }
+                if (label == 0) {
+                    label = ++_regionCount;
+                    ensureBoundsCapacity();
+                }
+                for (int c = 0; c < size; c++) {
+                    _labels[component[c]] = label;
+                    extendBounds(label, component[c] % _width, component[c] / _width);
+                }
+                if (resultCount == result.length) {
+                    result = Arrays.copyOf(result, resultCount * 2);
+                }
+                result[resultCount++] = label;
+            }
+        }
+
+        // adjacency spans the whole page, it is rebuilt the next time it is needed.
+        _neighbors = null;
+        return Arrays.copyOf(result, resultCount);
+    }
+    // EndRegion: [Internal] Incremental updates
+
+    // Region: [Private] Region adjacency
+    private void ensureAdjacency() {
+        if (_neighbors == null) {
+            buildAdjacency();
+        }
+    }
+
+    private void buildAdjacency() {
+        // grow all regions over the outline pixels at the same pace. Two regions are
+        // adjacent where their growing fronts meet, that is, across the same outline.
+        int[] owner = _labels.clone();
+        int[] queue = new int[_labels.length];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < owner.length; i++) {
+            if (owner[i] != 0) {
+                queue[tail++] = i;
+            }
+        }
+
+        long[] edges = new long[256];
+        int edgeCount = 0;
+        while (head < tail) {
+            int i = queue[head++];
+            int x = i % _width;
+            int y = i / _width;
+            int o = owner[i];
+            for (int k = 0; k < _connectivity.size(); k++) {
+                int nx = x + _connectivity.dx(k);
+                int ny = y + _connectivity.dy(k);
+                if (nx < 0 || nx >= _width || ny < 0 || ny >= _height) {
+                    continue;
+                }
+                int j = ny * _width + nx;
+                int p = owner[j];
+                if (p == 0) {
+                    owner[j] = o;
+                    queue[tail++] = j;
+                } else if (o < p) {
+                    long edge = ((long)o << 32) | p;
+                    // consecutive probes mostly hit the same edge, skip the obvious repeats.
+                    if (edgeCount == 0 || edges[edgeCount - 1] != edge) {
+                        if (edgeCount == edges.length) {
+                            edges = Arrays.copyOf(edges, edges.length * 2);
+                        }
+                        edges[edgeCount++] = edge;
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(edges, 0, edgeCount);
+        int[] degree = new int[_regionCount + 1];
+        long prev = -1;
+        for (int e = 0; e < edgeCount; e++) {
+            if (edges[e] != prev) {
+                degree[(int)(edges[e] >>> 32)]++;
+                degree[(int)edges[e]]++;
+                prev = edges[e];
+            }
+        }
+        _neighbors = new int[_regionCount + 1][];
+        for (int r = 0; r <= _regionCount; r++) {
+            _neighbors[r] = new int[degree[r]];
+            degree[r] = 0;
+        }
+        prev = -1;
+        for (int e = 0; e < edgeCount; e++) {
+            if (edges[e] != prev) {
+                int a = (int)(edges[e] >>> 32);
+                int b = (int)edges[e];
+                _neighbors[a][degree[a]++] = b;
+                _neighbors[b][degree[b]++] = a;
+                prev = edges[e];
+            }
+        }
+    }
+    // EndRegion: [Private] Region adjacency
+
+    // Region: [Public] Region queries
+    /**
+     * Gets the connectivity the regions were labeled with.
+     * @return the Connectivity given at construction.
+     */
+    public Connectivity getConnectivity() {
+        return _connectivity;
+    }
+
+    /**
+     * Gets the number of bright regions in the drawing.
+     * @return the number of regions, numbered from 1 to this value.
+     */
+    public int getRegionCount() {
+        return _regionCount;
+    }
+
+    /**
+     * Gets the region containing the pixel at the given x and y coordinates.
+     * @param x - x coordinate value.
+     * @param y - y coordinate value.
+     * @return the region number, or 0 if the pixel is part of an outline.
+     */
+    public int getRegion(int x, int y) {
+        return _labels[y * _width + x];
+    }
+
+    /**
+     * Gets the regions adjacent to the given region across the dark outlines.
+     * @param region - the region number, between 1 and getRegionCount().
+     * @return the adjacent region numbers.
+     */
+    public int[] getNeighbors(int region) {
+        ensureAdjacency();
+        return _neighbors[region].clone();
+    }
+
+    /**
+     * Assigns each region one of the given number of colors, such that adjacent regions
+     * get different colors whenever possible. Regions are visited in the order of their
+     * decreasing number of neighbors (Welsh-Powell), each taking the first color not
+     * used by its neighbors. When all colors are used, the least used one is reused.
+     * @param colorCount - the number of available colors.
+     * @return the color index, between 0 and colorCount-1, of each region. The entry
+     * at index 0, as well as the entries of empty regions, are -1.
+     * @throws IllegalArgumentException if colorCount is less than 1.
+     */
+    public int[] greedyColoring(int colorCount) {
+        if (colorCount < 1) {
+            throw new IllegalArgumentException("No colors to assign: " + colorCount);
+        }
+        ensureAdjacency();
+        Integer[] order = new Integer[_regionCount];
+        for (int r = 0; r < _regionCount; r++) {
+            order[r] = r + 1;
+        }
+        Arrays.sort(order, (a, b) -> _neighbors[b].length - _neighbors[a].length);
+
+        int[] colors = new int[_regionCount + 1];
+        Arrays.fill(colors, -1);
+        int[] uses = new int[colorCount];
+        for (int region : order) {
+            if (_maxX[region] < 0) {
+                continue;
+            }
+            Arrays.fill(uses, 0);
+            for (int n : _neighbors[region]) {
+                if (colors[n] >= 0) {
+                    uses[colors[n]]++;
+                }
+            }
+            int best = 0;
+            for (int c = 1; c < colorCount && uses[best] > 0; c++) {
+                if (uses[c] < uses[best]) {
+                    best = c;
+                }
+            }
+            colors[region] = best;
+        }
+        return colors;
+    }
+    // EndRegion: [Public] Region queries
+
+    // Region: [Public] Region painting
+    /**
+     * Paints every region with its given color, in one pass over the drawing.
+     * @param regionColors - the Color of each region, indexed by region number.
+     * Regions with a null color, as well as the outlines, are left unchanged.
+     */
+    public void paint(Color[] regionColors) {
+        paintRows(regionColors, 0, _height - 1);
+    }
+
+    /**
+     * Paints only the given regions with their given color, visiting just the rows they span.
+     * Meant for repainting the regions returned by Drawing.drawLine() after an edit.
+     * @param regionColors - the Color of each region, indexed by region number.
+     * @param regions - the region numbers to be painted.
+     */
+    public void paint(Color[] regionColors, int[] regions) {
+        Color[] selected = new Color[regionColors.length];
+        int y0 = _height;
+        int y1 = -1;
+        for (int r : regions) {
+            if (r > 0 && r < regionColors.length && _maxY[r] >= 0) {
+                selected[r] = regionColors[r];
+                y0 = Math.min(y0, _minY[r]);
+                y1 = Math.max(y1, _maxY[r]);
+            }
+        }
+        paintRows(selected, y0, y1);
+    }
+
+    private void paintRows(Color[] regionColors, int y0, int y1) {
+        int[] rgb = new int[_regionCount + 1];
+        boolean[] painted = new boolean[_regionCount + 1];
+        for (int r = 1; r <= _regionCount && r < regionColors.length; r++) {
+            if (regionColors[r] != null) {
+                rgb[r] = regionColors[r].getRGB();
+                painted[r] = true;
+            }
+        }
+        int[] row = new int[_width];
+        for (int y = y0, i = y0 * _width; y <= y1; y++) {
+            _drawing.getRow(y, row);
+            for (int x = 0; x < _width; x++, i++) {
+                int r = _labels[i];
+                if (painted[r]) {
+                    row[x] = rgb[r];
+                }
+            }
+            _drawing.setRow(y, row);
+        }
+    }
+    // EndRegion: [Public] Region painting
+}
@@ -0,0 +1,295 @@
+package ColoringBook.graphics;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encapsulates the persistent coloring progress on a Drawing. A SessionLog object can be
+ * created only by providing the session directory and the drawing being colored as arguments
+ * to its constructor, which restores the progress saved by previous runs onto the drawing.
+ * In return, the object can be used for recording each completed fill as it happens.<p>
+ * Fills are appended to a log file as span records by a background writer, and synced
+ * to disk in batches, so recording never waits on the disk. Once enough fills are logged, the
+ * drawing is copied between two fills and the writer saves the copy as a checkpoint image, then
+ * starts the log over. Drawings in indexed-color mode are copied as indexed images, one byte
+ * per pixel. The files are named after the content hash of the drawing as loaded,
+ * so each page has its own session.
+ */
+public class SessionLog implements Closeable {
+
+    private static final int SYNC_BATCH = 32;
+    private static final long SYNC_INTERVAL_MS = 500;
+    private static final int COMPACT_RECORDS = 256;
+
+    // either a fill record, or a checkpoint of the drawing as of all the records queued before it.
+    private static final class Entry {
+        final SpanMask mask;
+        final int rgb;
+        final BufferedImage snapshot;
+
+        Entry(SpanMask mask, int rgb, BufferedImage snapshot) {
+            this.mask = mask;
+            this.rgb = rgb;
+            this.snapshot = snapshot;
+        }
+    }
+    // queued by close() to stop the writer once all previous entries are written.
+    private static final Entry CLOSE = new Entry(null, 0, null);
+
+    private final Drawing _drawing;
+    private final File _logFile;
+    private final File _checkpointFile;
+    private final FileChannel _log;
+    private final LinkedBlockingQueue<Entry> _queue = new LinkedBlockingQueue<Entry>();
+    private final Thread _writer;
+    private final Thread _shutdownHook;
+    private int _restoredCount = 0;
+    // guarded by _queue.
+    private boolean _closed = false;
+    private int _sinceCheckpoint = 0;
+    // the error that stopped the writer, if any.
+    private volatile IOException _failure = null;
+
+    // owned by the writer thread.
+    private int _unsynced = 0;
+
+    /**
+     * Creates an instance of a SessionLog object for the given drawing, restoring onto it the
+     * latest checkpoint and the fills logged after it, if any. The log is flushed and synced
+     * when the object is closed, or when the JVM exits.
+     * @param dir - the session directory. It is created if it doesn't exist.
+     * @param drawing - the drawing being colored, as loaded.
+     * @throws IOException - the session files cannot be created or read.
+     */
+    public SessionLog(File dir, Drawing drawing) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String name = String.format("%016x", drawing.getContentHash());
+        _drawing = drawing;
+        _logFile = new File(dir, name + ".log");
+        _checkpointFile = new File(dir, name + ".png");
+        restore();
+        _log = FileChannel.open(_logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        _writer = new Thread(this::writeLoop, "session-log");
+        _writer.setDaemon(true);
+        _writer.start();
+        _shutdownHook = new Thread(this::closeQuietly, "session-log-shutdown");
+        Runtime.getRuntime().addShutdownHook(_shutdownHook);
+    }
+
+    // Region: [Private] Restoring
+    private void restore() throws IOException {
+        if (_checkpointFile.isFile()) {
+            BufferedImage checkpoint = ImageIO.read(_checkpointFile);
+            if (checkpoint != null
+                    && checkpoint.getWidth() == _drawing.getWidth()
+                    && checkpoint.getHeight() == _drawing.getHeight()) {
+                int[] row = new int[checkpoint.getWidth()];
+                for (int y = 0; y < checkpoint.getHeight(); y++) {
+                    checkpoint.getRGB(0, y, row.length, 1, row, 0, row.length);
+                    _drawing.setRow(y, row);
+                }
+            }
+        }
+        if (_logFile.isFile()) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(_logFile.toPath()));
+            try {
+                while (buffer.hasRemaining()) {
+                    int rgb = buffer.getInt();
+                    SpanMask mask = SpanMask.readFrom(buffer);
+                    if (!mask.fitsIn(_drawing.getWidth(), _drawing.getHeight())) {
+                        break;
+                    }
+                    mask.paint(_drawing, new Color(rgb));
+                    _restoredCount++;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // the last record was cut short by a crash or is corrupt, the fills before it are restored.
+            }
+        }
+    }
+    // EndRegion: [Private] Restoring
+
+    // Region: [Private] Background writer
+    private void writeLoop() {
+        ArrayList<Entry> batch = new ArrayList<Entry>();
+        try {
+            while (true) {
+                Entry first = _queue.poll(SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    sync();
+                    continue;
+                }
+                batch.add(first);
+                _queue.drainTo(batch);
+                boolean closing = write(batch);
+                batch.clear();
+                if (closing) {
+                    sync();
+                    _log.close();
+                    return;
+                }
+                if (_unsynced >= SYNC_BATCH) {
+                    sync();
+                }
+            }
+        } catch (InterruptedException e) {
+            _failure = new InterruptedIOException("Session log writer interrupted");
+        } catch (IOException e) {
+            _failure = e;
+        }
+        System.out.println("Session log stopped: " + _failure.getMessage());
+        try {
+            _log.close();
+        } catch (IOException e) {
+            // already failing, the first error is the one reported.
+        }
+    }
+
+    // writes the entries up to CLOSE, returns true if CLOSE was reached.
+    private boolean write(ArrayList<Entry> batch) throws IOException {
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            if (entry == CLOSE) {
+                append(batch.subList(from, i));
+                return true;
+            }
+            if (entry.snapshot != null) {
+                // the records before the checkpoint go to the log it replaces.
+                append(batch.subList(from, i));
+                checkpoint(entry.snapshot);
+                from = i + 1;
+            }
+        }
+        append(batch.subList(from, batch.size()));
+        return false;
+    }
+
+    // appends the fill records as a single write.
+    private void append(List<Entry> records) throws IOException {
+        int size = 0;
+        for (Entry record : records) {
+            size += Integer.BYTES + record.mask.getByteSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Entry record : records) {
+            buffer.putInt(record.rgb);
+            record.mask.writeTo(buffer);
+            _unsynced++;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            _log.write(buffer);
+        }
+    }
+
+    private void sync() throws IOException {
+        if (_unsynced > 0) {
+            _log.force(false);
+            _unsynced = 0;
+        }
+    }
+
+    // saves the snapshot and starts the log over. The snapshot holds exactly the fills
+    // recorded before it, all of which are written to the log being replaced.
+    private void checkpoint(BufferedImage snapshot) throws IOException {
+        File tmpFile = new File(_checkpointFile.getPath() + ".tmp");
+        ImageIO.write(snapshot, "png", tmpFile);
+        Files.move(tmpFile.toPath(), _checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        _log.truncate(0);
+        _log.force(true);
+        _unsynced = 0;
+    }
+    // EndRegion: [Private] Background writer
+
+    // Region: [Public] Session recording
+    /**
+     * Gets the number of fills replayed from the log when the session was opened.
+     * @return the number of fills restored on top of the checkpoint.
+     */
+    public int getRestoredCount() {
+        return _restoredCount;
+    }
+
+    /**
+     * Records a completed fill. The record is written in the background, this method doesn't block
+     * on the disk. It must be called by the thread painting the drawing, once the fill is complete:
+     * when a checkpoint is due, the drawing is copied right away, between two fills.
+     * @param mask - the pixels painted by the fill.
+     * @param c - the Color value of the fill.
+     * @throws IOException - the log is closed, or its writer stopped on an error.
+     */
+    public void record(SpanMask mask, Color c) throws IOException {
+        IOException failure = _failure;
+        if (failure != null) {
+            throw new IOException("Session log stopped: " + failure.getMessage(), failure);
+        }
+        synchronized (_queue) {
+            if (_closed) {
+                throw new IOException("Session log closed");
+            }
+            _queue.add(new Entry(mask, c.getRGB(), null));
+            if (++_sinceCheckpoint >= COMPACT_RECORDS) {
+                _queue.add(new Entry(null, 0, _drawing.copyImage()));
+                _sinceCheckpoint = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes and syncs all the recorded fills, then closes the log.
+     * @throws IOException - the writer stopped on an error, the latest fills may not be saved.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (_queue) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+        }
+        _queue.add(CLOSE);
+        try {
+            _writer.join();
+            Runtime.getRuntime().removeShutdownHook(_shutdownHook);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (IllegalStateException e) {
+            // closing from the shutdown hook itself.
+        }
+        IOException failure = _failure;
+        if (failure != null) {
+            throw new IOException("Session log stopped: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            System.out.println("Session log not closed: " + e.getMessage());
+        }
+    }
+    // EndRegion: [Public] Session recording
+}
@@ -0,0 +1,185 @@
+package ColoringBook.graphics;
+
+import java.awt.Color;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Encapsulates a set of pixels as a list of horizontal runs (spans), ordered top to bottom
+ * and left to right. A SpanMask is a compact record of the pixels reached by a fill, which
+ * can be tested pixel by pixel, stored and painted back onto a Drawing one run at a time.
+ */
+public final class SpanMask {
+
+    // serialized header: minX, minY, maxX, maxY, span count.
+    private static final int HEADER_BYTES = 5 * Integer.BYTES;
+    private static final int SPAN_BYTES = 3 * Integer.BYTES;
+
+    // triplets of (y, x0, x1), both ends inclusive.
+    private final int[] _spans;
+    private final int _minX;
+    private final int _minY;
+    private final int _maxX;
+    private final int _maxY;
+
+    private SpanMask(int[] spans) {
+        _spans = spans;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+        for (int s = 0; s < spans.length; s += 3) {
+            minY = Math.min(minY, spans[s]);
+            maxY = Math.max(maxY, spans[s]);
+            minX = Math.min(minX, spans[s + 1]);
+            maxX = Math.max(maxX, spans[s + 2]);
+        }
+        _minX = minX;
+        _minY = minY;
+        _maxX = maxX;
+        _maxY = maxY;
+    }
+
+    /**
+     * Creates a SpanMask from the set bits of the given BitSet, where bit y*width+x
+     * stands for the pixel at (x, y).
+     * @param bits - the pixels of the mask.
+     * @param width - the width of the image the bits are indexed over.
+     * @return the new SpanMask object.
+     */
+    public static SpanMask fromBits(BitSet bits, int width) {
+        int[] spans = new int[48];
+        int count = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; ) {
+            int y = i / width;
+            int end = Math.min(bits.nextClearBit(i), (y + 1) * width);
+            if (count == spans.length) {
+                spans = Arrays.copyOf(spans, count * 2);
+            }
+            spans[count++] = y;
+            spans[count++] = i - y * width;
+            spans[count++] = end - 1 - y * width;
+            i = bits.nextSetBit(end);
+        }
+        return new SpanMask(Arrays.copyOf(spans, count));
+    }
+
+    // Region: [Public] Mask queries
+    /**
+     * Gets the number of pixels in the mask.
+     * @return the number of pixels covered by all the spans.
+     */
+    public int getPixelCount() {
+        int count = 0;
+        for (int s = 0; s < _spans.length; s += 3) {
+            count += _spans[s + 2] - _spans[s + 1] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Indicates whether the pixel at the given x and y coordinates is part of the mask.
+     * @param x - x coordinate value.
+     * @param y - y coordinate value.
+     * @return true if a span covers the pixel, false otherwise.
+     */
+    public boolean contains(int x, int y) {
+        if (x < _minX || x > _maxX || y < _minY || y > _maxY) {
+            return false;
+        }
+        // binary search for the first span at or after (y, x)
+        int lo = 0;
+        int hi = _spans.length / 3;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int s = 3 * mid;
+            if (_spans[s] < y || (_spans[s] == y && _spans[s + 2] < x)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int s = 3 * lo;
+        return s < _spans.length && _spans[s] == y && _spans[s + 1] <= x;
+    }
+    // EndRegion: [Public] Mask queries
+
+    // Region: [Public] Painting
+    /**
+     * Paints all the pixels of the mask onto the drawing, one span at a time.
+     * @param drawing - the drawing to be painted.
+     * @param c - the Color value to be set on the pixels of the mask.
+     */
+    public void paint(Drawing drawing, Color c) {
+        int rgb = c.getRGB();
+        for (int s = 0; s < _spans.length; s += 3) {
+            drawing.fillSpan(_spans[s], _spans[s + 1], _spans[s + 2], rgb);
+        }
+    }
+    // EndRegion: [Public] Painting
+
+    // Region: [Internal] Serialization
+    int getByteSize() {
+        return HEADER_BYTES + _spans.length * Integer.BYTES;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(_minX).putInt(_minY).putInt(_maxX).putInt(_maxY).putInt(_spans.length / 3);
+        for (int v : _spans) {
+            buffer.putInt(v);
+        }
+    }
+
+    /**
+     * Reads the next serialized mask.
+     * @throws BufferUnderflowException if the record is truncated or its span count is corrupt.
+     */
+    static SpanMask readFrom(ByteBuffer buffer) {
+        // the bounding box is recomputed from the spans.
+        buffer.position(buffer.position() + 4 * Integer.BYTES);
+        int[] spans = new int[3 * checkSpanCount(buffer, buffer.getInt())];
+        buffer.asIntBuffer().get(spans);
+        buffer.position(buffer.position() + spans.length * Integer.BYTES);
+        return new SpanMask(spans);
+    }
+
+    // a mask read back from a file may hold any coordinates, check them before painting.
+    boolean fitsIn(int width, int height) {
+        for (int s = 0; s < _spans.length; s += 3) {
+            if (_spans[s] < 0 || _spans[s] >= height
+                    || _spans[s + 1] < 0 || _spans[s + 1] > _spans[s + 2] || _spans[s + 2] >= width) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a count that the rest of the buffer cannot hold is a corrupt or truncated record.
+    private static int checkSpanCount(ByteBuffer buffer, int spanCount) {
+        if (spanCount < 0 || spanCount > buffer.remaining() / SPAN_BYTES) {
+            throw new BufferUnderflowException();
+        }
+        return spanCount;
+    }
+
+    /**
+     * Reads the next serialized mask if its bounding box contains the given pixel,
+     * otherwise skips it. Either way, the buffer is left at the start of the next mask.
+     * @throws BufferUnderflowException if the record is truncated or its span count is corrupt.
+     */
+    static SpanMask readIfBoundsContain(ByteBuffer buffer, int x, int y) {
+        int minX = buffer.getInt();
+        int minY = buffer.getInt();
+        int maxX = buffer.getInt();
+        int maxY = buffer.getInt();
+        int spanCount = checkSpanCount(buffer, buffer.getInt());
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            buffer.position(buffer.position() + spanCount * SPAN_BYTES);
+            return null;
+        }
+        int[] spans = new int[3 * spanCount];
+        buffer.asIntBuffer().get(spans);
+        buffer.position(buffer.position() + spanCount * SPAN_BYTES);
+        return new SpanMask(spans);
+    }
+    // EndRegion: [Internal] Serialization
+}
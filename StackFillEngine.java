@@ -0,0 +1,14 @@
+package ColoringBook.main;
+
+import java.util.ArrayDeque;
+
+/**
+ * Depth-first fill: the last pixel painted is expanded first.
+ */
+public class StackFillEngine extends FrontierFillEngine {
+
+    @Override
+    protected WorkItem next(ArrayDeque<WorkItem> frontier){
+        return frontier.removeLast();
+    }
+}
@@ -25,6 +25,10 @@ public class WorkItem {
         return y;
     }
 
+    public int getIndex(){
+        return y * d.getWidth() + x;
+    }
+
     public Drawing getDrawing(){
         return d;
     }
@@ -0,0 +1,462 @@
+package ColoringBook.test;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.imageio.ImageIO;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import ColoringBook.graphics.Connectivity;
+import ColoringBook.graphics.Drawing;
+import ColoringBook.graphics.DrawingPreview;
+import ColoringBook.graphics.FillCache;
+import ColoringBook.graphics.RegionMap;
+import ColoringBook.graphics.SessionLog;
+import ColoringBook.graphics.SpanMask;
+import ColoringBook.main.FillEngine;
+import ColoringBook.main.FillEngines;
+import ColoringBook.main.FillResult;
+import ColoringBook.main.Program;
+
+/**
+ * Headless correctness and scaling suite of the fills. Each case generates a synthetic
+ * drawing, fills it from a seed with one of the registered engines, then checks the painted
+ * pixel count and the whole resulting image against ReferenceFill. The fill itself must stay
+ * within the time and peak live heap budgets of the image size.<p>
+ * Runs from the command line, without a display:
+ * java -Xmx2g -Djava.awt.headless=true ColoringBook.test.FillTestSuite [--quick]
+ * where --quick skips the 8K pages. Exits with status 1 if any check fails.
+ */
+public class FillTestSuite {
+
+    // the recursive engine goes as deep as the longest corridor of the smallest pages.
+    private static final long WORKER_STACK_BYTES = 256L << 20;
+    private static final int FILL_RGB = 0xE8F4FF;
+    private static final int DARK_FILL_RGB = 0xC03020;
+
+    /**
+     * Image sizes, each with the time and peak live heap the fill of one page may take.
+     * The heap budget covers the frontier, the visited pixels and the FillResult: about
+     * 32 bytes per pixel, as the frontier of a depth-first fill of an open page holds
+     * up to one entry per pixel.
+     */
+    private enum Size {
+        SMALL(256, 256, 1000, 8L << 20),
+        MEDIUM(2048, 2048, 4000, 128L << 20),
+        PAGE_8K(7680, 4320, 30000, 1L << 30);
+
+        final int width;
+        final int height;
+        final long maxMillis;
+        final long maxBytes;
+
+        Size(int width, int height, long maxMillis, long maxBytes) {
+            this.width = width;
+            this.height = height;
+            this.maxMillis = maxMillis;
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private static final ArrayList<String> _failures = new ArrayList<String>();
+    private static int _checks = 0;
+
+    // the collector reports occupancy by whole heap regions (1 to 32 MB with G1), so a reading
+    // may fall a region below the baseline. Readings further below it are not measurement noise.
+    private static final long HEAP_NOISE_BYTES = 4L << 20;
+
+    // largest heap occupancy seen right after a collection, while a fill is measured.
+    private static volatile long _peakAfterGc = 0;
+    // heap occupancy right after the latest collection, and the number of collections.
+    private static volatile long _lastAfterGc = 0;
+    private static volatile int _collections = 0;
+
+    // Region: [Private] Checks and measurements
+    private static void check(boolean condition, String caseName, String message) {
+        _checks++;
+        if (!condition) {
+            _failures.add(caseName + ": " + message);
+            System.out.println("  FAIL " + message);
+        }
+    }
+
+    // the heap occupancy right after a full collection, as reported by the collector itself,
+    // such that baselines and peaks are measured the same way.
+    private static long settledHeap() throws InterruptedException {
+        int collections = _collections;
+        System.gc();
+        for (int i = 0; i < 1000 && _collections == collections; i++) {
+            Thread.sleep(1);
+        }
+        return _lastAfterGc;
+    }
+
+    private static void watchCollections() {
+        HashSet<String> heapPools = new HashSet<String>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> usage : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(usage.getKey())) {
+                    used += usage.getValue().getUsed();
+                }
+            }
+            _peakAfterGc = Math.max(_peakAfterGc, used);
+            _lastAfterGc = used;
+            _collections++;
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter)collector).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private static int[] pixelsOf(Drawing drawing) {
+        int width = drawing.getWidth();
+        int[] pixels = new int[width * drawing.getHeight()];
+        for (int y = 0; y < drawing.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = drawing.getPixel(x, y).getRGB();
+            }
+        }
+        return pixels;
+    }
+
+    private static String firstDifference(int[] actual, int[] expected, int width) {
+        for (int i = 0; i < expected.length; i++) {
+            if (actual[i] != expected[i]) {
+                return String.format("pixel (%d, %d) is %06X instead of %06X",
+                        i % width, i / width, actual[i] & 0xFFFFFF, expected[i] & 0xFFFFFF);
+            }
+        }
+        return null;
+    }
+    // EndRegion: [Private] Checks and measurements
+
+    // Region: [Private] Fill cases
+    private static void fillCase(
+            String drawingName, Size size, Supplier<BufferedImage> generator,
+            int xSeed, int ySeed, String engine, Connectivity connectivity, int rgb) throws InterruptedException {
+        String caseName = String.format("%s %s %s %s", drawingName, size, engine, connectivity);
+        System.out.println(caseName);
+        BufferedImage image = generator.get();
+        BitSet expected = ReferenceFill.fill(image, xSeed, ySeed, connectivity.size());
+        int[] golden = ReferenceFill.golden(image, expected, rgb);
+        int expectedCount = expected.cardinality();
+        expected = null;
+        Drawing drawing = new Drawing(image);
+
+        long baseline = settledHeap();
+        _peakAfterGc = 0;
+        long start = System.nanoTime();
+        FillResult result;
+        try {
+            result = FillEngines.get(engine).fill(
+                    drawing, xSeed, ySeed, new Color(rgb), connectivity, FillEngine.NO_HOOK);
+        } catch (InterruptedException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            check(false, caseName, "fill failed: " + e);
+            return;
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        // the result is still referenced, so the retained heap counts towards the peak.
+        long peakBytes = Math.max(_peakAfterGc, settledHeap()) - baseline;
+        System.out.println(String.format("  %s in %d ms, peak live heap %d KB",
+                result, millis, peakBytes >> 10));
+        check(peakBytes > -HEAP_NOISE_BYTES, caseName, String.format(
+                "nonsensical peak live heap reading %d KB", peakBytes >> 10));
+        peakBytes = Math.max(0, peakBytes);
+
+        check(result.getPixelsPainted() == expectedCount, caseName, String.format(
+                "%d pixels painted instead of %d", result.getPixelsPainted(), expectedCount));
+        check(result.getRegion().getPixelCount() == expectedCount, caseName, "region size differs from the pixels painted");
+        String difference = firstDifference(pixelsOf(drawing), golden, size.width);
+        check(difference == null, caseName, "image differs from the reference fill: " + difference);
+        check(millis <= size.maxMillis, caseName, String.format(
+                "took %d ms, budget %d ms", millis, size.maxMillis));
+        check(peakBytes <= size.maxBytes, caseName, String.format(
+                "peak live heap %d KB, budget %d KB", peakBytes >> 10, size.maxBytes >> 10));
+    }
+
+    private static void fillCases(Size size, boolean recursive) throws InterruptedException {
+        int w = size.width;
+        int h = size.height;
+        ArrayList<String> engines = new ArrayList<String>();
+        engines.add("queue");
+        engines.add("stack");
+        if (recursive) {
+            engines.add("recursive");
+        }
+        for (String engine : engines) {
+            for (Connectivity connectivity : Connectivity.values()) {
+                fillCase("full-white", size, () -> SyntheticDrawings.fullWhite(w, h),
+                        w / 2, h / 2, engine, connectivity, FILL_RGB);
+                fillCase("diagonal-leaks", size, () -> SyntheticDrawings.diagonalLeaks(w, h, 16),
+                        w / 2 + 1, h / 2, engine, connectivity, DARK_FILL_RGB);
+                if (size != Size.PAGE_8K) {
+                    fillCase("serpentine", size, () -> SyntheticDrawings.serpentine(w, h, 1),
+                            0, 0, engine, connectivity, FILL_RGB);
+                    fillCase("concentric-spiral", size, () -> SyntheticDrawings.concentricSpiral(w, h, 2),
+                            w / 2, h / 2, engine, connectivity, DARK_FILL_RGB);
+                }
+            }
+        }
+    }
+
+    private static void seedCases() {
+        String caseName = "seeds";
+        System.out.println(caseName);
+        BufferedImage image = SyntheticDrawings.serpentine(64, 64, 1);
+        Drawing drawing = new Drawing(image);
+        for (String engine : FillEngines.getNames()) {
+            try {
+                FillResult outside = FillEngines.get(engine).fill(
+                        drawing, 64, 0, Color.red, Connectivity.EIGHT, FillEngine.NO_HOOK);
+                FillResult onWall = FillEngines.get(engine).fill(
+                        drawing, 0, 1, Color.red, Connectivity.EIGHT, FillEngine.NO_HOOK);
+                check(outside.getPixelsPainted() == 0, caseName, engine + " painted from a seed outside the drawing");
+                check(onWall.getPixelsPainted() == 0, caseName, engine + " painted from a dark seed");
+            } catch (InterruptedException | RuntimeException e) {
+                check(false, caseName, engine + " failed: " + e);
+            }
+        }
+        // the last row and column are valid pixels.
+        check(drawing.isValidPixel(63, 63), caseName, "the bottom-right pixel is not valid");
+        check(!drawing.isValidPixel(64, 63), caseName, "a pixel right of the drawing is valid");
+    }
+
+    // a probe is counted for every in-bounds pixel examined, visited or not.
+    private static void probeCases() {
+        String caseName = "probes";
+        System.out.println(caseName);
+        int w = 40;
+        int h = 30;
+        long[] expected = {
+                1 + 4L * w * h - 2 * (w + h),
+                1 + 8L * w * h - 6 * (w + h) + 4};
+        Connectivity[] connectivities = {Connectivity.FOUR, Connectivity.EIGHT};
+        for (String engine : FillEngines.getNames()) {
+            for (int c = 0; c < connectivities.length; c++) {
+                Drawing drawing = new Drawing(SyntheticDrawings.fullWhite(w, h));
+                try {
+                    FillResult result = FillEngines.get(engine).fill(
+                            drawing, w / 2, h / 2, Color.red, connectivities[c], FillEngine.NO_HOOK);
+                    check(result.getProbes() == expected[c], caseName, String.format(
+                            "%s %s made %d probes instead of %d", engine, connectivities[c], result.getProbes(), expected[c]));
+                } catch (InterruptedException | RuntimeException e) {
+                    check(false, caseName, engine + " failed: " + e);
+                }
+            }
+        }
+    }
+    // EndRegion: [Private] Fill cases
+
+    // Region: [Private] Pipeline cases
+    private static void pipelineCases() throws IOException, InterruptedException {
+        String caseName = "pipeline";
+        System.out.println(caseName);
+        int w = Size.MEDIUM.width / 2;
+        int h = Size.MEDIUM.height / 2;
+        BufferedImage image = SyntheticDrawings.concentricSpiral(w, h, 3);
+        BitSet expected = ReferenceFill.fill(image, w / 2, h / 2, 8);
+        int[] golden = ReferenceFill.golden(image, expected, DARK_FILL_RGB);
+
+        // decoding from encoded content gives the same drawing.
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        Drawing decoded = new Drawing(png.toByteArray());
+        check(decoded.getContentHash() == new Drawing(image).getContentHash(), caseName,
+                "decoded drawing has a different content hash");
+
+        // indexed mode fills the same pixels.
+        Drawing indexed = new Drawing(png.toByteArray());
+        indexed.toIndexed();
+        FillResult result = FillEngines.get("queue").fill(
+                indexed, w / 2, h / 2, new Color(DARK_FILL_RGB), Connectivity.EIGHT, FillEngine.NO_HOOK);
+        check(result.getPixelsPainted() == expected.cardinality(), caseName, "indexed fill count differs");
+        check(firstDifference(pixelsOf(indexed), golden, w) == null, caseName, "indexed fill image differs");
+
+        // the preview never reaches a pixel the exact fill doesn't.
+        for (Connectivity connectivity : Connectivity.values()) {
+            Drawing drawing = new Drawing(png.toByteArray());
+            BitSet exact = ReferenceFill.fill(image, w / 2, h / 2, connectivity.size());
+            DrawingPreview preview = drawing.getPreview();
+            BitSet blocks = preview.fill(w / 2, h / 2, connectivity);
+            int f = preview.getFactor();
+            int outside = 0;
+            for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1)) {
+                int bx = b % preview.getWidth();
+                int by = b / preview.getWidth();
+                for (int y = by * f; y < Math.min(h, by * f + f); y++) {
+                    for (int x = bx * f; x < Math.min(w, bx * f + f); x++) {
+                        if (!exact.get(y * w + x)) {
+                            outside++;
+                        }
+                    }
+                }
+            }
+            check(outside == 0, caseName, String.format(
+                    "%s preview reaches %d pixels outside the exact fill", connectivity, outside));
+        }
+
+        // the region round-trips through the fill cache and the session log.
+        SpanMask region = result.getRegion();
+        File dir = Files.createTempDirectory("fill-test").toFile();
+        try {
+            Drawing drawing = new Drawing(png.toByteArray());
+            FillCache cache = new FillCache(new File(dir, "cache"), 1L << 20);
+            check(cache.lookup(drawing, Connectivity.EIGHT, w / 2, h / 2) == null, caseName, "empty cache hit");
+            cache.store(drawing, Connectivity.EIGHT, region);
+            SpanMask cached = cache.lookup(drawing, Connectivity.EIGHT, w / 2, h / 2);
+            check(cached != null && cached.getPixelCount() == expected.cardinality(), caseName, "cache miss after store");
+            check(cache.lookup(drawing, Connectivity.FOUR, w / 2, h / 2) == null, caseName,
+                    "8-connected region returned for a 4-connected fill");
+
+            try (SessionLog session = new SessionLog(new File(dir, "session"), drawing)) {
+                region.paint(drawing, new Color(DARK_FILL_RGB));
+                session.record(region, new Color(DARK_FILL_RGB));
+            }
+            Drawing restored = new Drawing(png.toByteArray());
+            try (SessionLog session = new SessionLog(new File(dir, "session"), restored)) {
+                check(session.getRestoredCount() == 1, caseName, "session restored "
+                        + session.getRestoredCount() + " fills instead of 1");
+            }
+            check(firstDifference(pixelsOf(restored), golden, w) == null, caseName, "restored session image differs");
+        } finally {
+            Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void regionCases() {
+        String caseName = "regions";
+        System.out.println(caseName);
+        // a page split by one black column, then merged again by erasing it.
+        BufferedImage image = SyntheticDrawings.fullWhite(20, 10);
+        for (int y = 0; y < 10; y++) {
+            image.setRGB(10, y, SyntheticDrawings.BLACK);
+        }
+        Drawing drawing = new Drawing(image);
+        check(drawing.getRegionMap(Connectivity.EIGHT).getRegionCount() == 2, caseName, "the column doesn't split the page");
+        drawing.drawLine(10, 0, 10, 9, Color.white);
+        try {
+            Program.autoColor(drawing, Connectivity.EIGHT, Color.red, Color.blue);
+        } catch (RuntimeException e) {
+            check(false, caseName, "autoColor after a merge failed: " + e);
+            return;
+        }
+        int rgb = drawing.getPixel(0, 0).getRGB();
+        boolean uniform = rgb != Color.white.getRGB();
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 20; x++) {
+                uniform &= drawing.getPixel(x, y).getRGB() == rgb;
+            }
+        }
+        check(uniform, caseName, "the merged region is not colored as one");
+
+        // diagonal walls only split the page into regions for 4-connected pixels, both when
+        // labeled at once and when relabeled after an edit.
+        for (Connectivity connectivity : Connectivity.values()) {
+            Drawing leaks = new Drawing(SyntheticDrawings.diagonalLeaks(40, 40, 8));
+            RegionMap regions = leaks.getRegionMap(connectivity);
+            int neighbors = connectivity.size();
+            check(regionsIn(regions, 40, 40) == referenceRegions(leaks, neighbors), caseName,
+                    connectivity + " regions differ from the reference fills");
+            leaks.drawLine(0, 20, 39, 20, Color.black);
+            check(regionsIn(regions, 40, 40) == referenceRegions(leaks, neighbors), caseName,
+                    connectivity + " regions differ from the reference fills after an edit");
+        }
+    }
+
+    // counts the distinct, non-empty regions of the map.
+    private static int regionsIn(RegionMap regions, int width, int height) {
+        BitSet seen = new BitSet();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seen.set(regions.getRegion(x, y));
+            }
+        }
+        seen.clear(0);
+        return seen.cardinality();
+    }
+
+    // counts the regions reached by successive reference fills.
+    private static int referenceRegions(Drawing drawing, int neighbors) {
+        BufferedImage image = new BufferedImage(drawing.getWidth(), drawing.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int width = drawing.getWidth();
+        image.setRGB(0, 0, width, drawing.getHeight(), pixelsOf(drawing), 0, width);
+        BitSet reached = new BitSet();
+        int count = 0;
+        for (int i = 0; i < width * drawing.getHeight(); i++) {
+            if (!reached.get(i) && ReferenceFill.isBright(image.getRGB(i % width, i / width))) {
+                reached.or(ReferenceFill.fill(image, i % width, i / width, neighbors));
+                count++;
+            }
+        }
+        return count;
+    }
+    // EndRegion: [Private] Pipeline cases
+
+    /**
+     * Runs all the cases on a worker thread with a deep stack, then reports the failures.
+     * @param args - --quick to skip the 8K pages.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean quick = args.length > 0 && args[0].equals("--quick");
+        watchCollections();
+        Throwable[] error = new Throwable[1];
+        Thread worker = new Thread(null, () -> {
+            try {
+                seedCases();
+                probeCases();
+                fillCases(Size.SMALL, true);
+                fillCases(Size.MEDIUM, false);
+                if (!quick) {
+                    fillCases(Size.PAGE_8K, false);
+                }
+                pipelineCases();
+                regionCases();
+            } catch (Throwable t) {
+                error[0] = t;
+            }
+        }, "fill-test", WORKER_STACK_BYTES);
+        worker.start();
+        worker.join();
+        if (error[0] != null) {
+            error[0].printStackTrace();
+            _failures.add("suite aborted: " + error[0]);
+        }
+        System.out.println(String.format("%d checks, %d failures", _checks, _failures.size()));
+        for (String failure : _failures) {
+            System.out.println("FAIL " + failure);
+        }
+        System.exit(_failures.isEmpty() ? 0 : 1);
+    }
+}
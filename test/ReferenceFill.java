@@ -0,0 +1,81 @@
+package ColoringBook.test;
+
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/**
+ * The simplest possible fill, used as the reference the fill engines are checked against:
+ * a breadth-first search over a copy of the pixels, sharing no code with the engines.
+ * A pixel is fillable when each of its three color-components exceeds 220, as with
+ * the default FillPredicate of a Drawing.
+ */
+class ReferenceFill {
+
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    private ReferenceFill() {
+    }
+
+    static boolean isBright(int rgb) {
+        return ((rgb >> 16) & 0xFF) > 220 && ((rgb >> 8) & 0xFF) > 220 && (rgb & 0xFF) > 220;
+    }
+
+    /**
+     * Computes the pixels reached from the seed.
+     * @param image - the drawing image, left unchanged.
+     * @param xSeed - x coordinate value of the seed.
+     * @param ySeed - y coordinate value of the seed.
+     * @param neighbors - 4 or 8.
+     * @return the reached pixels, bit y*width+x standing for the pixel at (x, y).
+     * Empty if the seed is not fillable.
+     */
+    static BitSet fill(BufferedImage image, int xSeed, int ySeed, int neighbors) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        BitSet reached = new BitSet(width * height);
+        if (!isBright(pixels[ySeed * width + xSeed])) {
+            return reached;
+        }
+        // every pixel enters the queue at most once.
+        int[] queue = new int[width * height];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ySeed * width + xSeed;
+        reached.set(ySeed * width + xSeed);
+        while (head < tail) {
+            int p = queue[head++];
+            int x = p % width;
+            int y = p / width;
+            for (int k = 0; k < neighbors; k++) {
+                int nx = x + DX[k];
+                int ny = y + DY[k];
+                if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+                    int n = ny * width + nx;
+                    if (!reached.get(n) && isBright(pixels[n])) {
+                        reached.set(n);
+                        queue[tail++] = n;
+                    }
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Computes the golden image of a fill: the drawing image with the reached pixels painted.
+     * @param image - the drawing image before the fill, left unchanged.
+     * @param reached - the pixels reached by the fill.
+     * @param rgb - the fill color.
+     * @return the expected pixels after the fill, in row-major order.
+     */
+    static int[] golden(BufferedImage image, BitSet reached, int rgb) {
+        int width = image.getWidth();
+        int[] pixels = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+        for (int i = reached.nextSetBit(0); i >= 0; i = reached.nextSetBit(i + 1)) {
+            pixels[i] = 0xFF000000 | rgb;
+        }
+        return pixels;
+    }
+}
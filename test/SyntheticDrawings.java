@@ -0,0 +1,117 @@
+package ColoringBook.test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Generators of synthetic drawings exercising the worst cases of the fills: very long
+ * corridors (deep recursion, long paths), huge open areas (large frontiers) and outlines
+ * only closed for 4-connected fills. All drawings are white pages with black 1-pixel walls.
+ */
+class SyntheticDrawings {
+
+    static final int WHITE = 0xFFFFFF;
+    static final int BLACK = 0x000000;
+
+    private SyntheticDrawings() {
+    }
+
+    // Region: [Private] Pixel helpers
+    private static BufferedImage blank(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Arrays.fill(pixelsOf(image), WHITE);
+        return image;
+    }
+
+    private static int[] pixelsOf(BufferedImage image) {
+        return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static void hLine(int[] pixels, int width, int y, int x0, int x1) {
+        Arrays.fill(pixels, y * width + x0, y * width + x1 + 1, BLACK);
+    }
+
+    private static void vLine(int[] pixels, int width, int x, int y0, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            pixels[y * width + x] = BLACK;
+        }
+    }
+    // EndRegion: [Private] Pixel helpers
+
+    // Region: [Internal] Generators
+    /**
+     * A page without any outline: the whole page is a single region.
+     */
+    static BufferedImage fullWhite(int width, int height) {
+        return blank(width, height);
+    }
+
+    /**
+     * Horizontal walls every (corridor+1) rows, each open on a corridor-wide gap at
+     * alternating ends, such that the page is a single corridor winding down to the bottom.
+     * @param corridor - the width of the corridor, in pixels.
+     */
+    static BufferedImage serpentine(int width, int height, int corridor) {
+        BufferedImage image = blank(width, height);
+        int[] pixels = pixelsOf(image);
+        int wall = 0;
+        for (int y = corridor; y < height; y += corridor + 1, wall++) {
+            if (wall % 2 == 0) {
+                hLine(pixels, width, y, 0, width - 1 - corridor);
+            } else {
+                hLine(pixels, width, y, corridor, width - 1);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Concentric rectangular rings every (corridor+1) pixels, each open on a corridor-wide gap
+     * alternately on its left and right side, such that the page is a single corridor spiraling
+     * from the border down to the center, half a ring at a time.
+     * @param corridor - the width of the corridor, in pixels.
+     */
+    static BufferedImage concentricSpiral(int width, int height, int corridor) {
+        BufferedImage image = blank(width, height);
+        int[] pixels = pixelsOf(image);
+        int ring = 0;
+        for (int d = corridor; 2 * d + 2 * corridor + 2 < Math.min(width, height); d += corridor + 1, ring++) {
+            int x0 = d;
+            int y0 = d;
+            int x1 = width - 1 - d;
+            int y1 = height - 1 - d;
+            int yGap = (y0 + y1) / 2;
+            hLine(pixels, width, y0, x0, x1);
+            hLine(pixels, width, y1, x0, x1);
+            if (ring % 2 == 0) {
+                vLine(pixels, width, x0, y0, yGap - 1);
+                vLine(pixels, width, x0, yGap + corridor, y1);
+                vLine(pixels, width, x1, y0, y1);
+            } else {
+                vLine(pixels, width, x0, y0, y1);
+                vLine(pixels, width, x1, y0, yGap - 1);
+                vLine(pixels, width, x1, yGap + corridor, y1);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Anti-diagonal walls every period pixels, drawn as a staircase of single pixels
+     * touching by their corners only. A 4-connected fill stays between two walls, while an
+     * 8-connected fill leaks through every wall and reaches the whole page.
+     * @param period - the distance between two walls, along each axis.
+     */
+    static BufferedImage diagonalLeaks(int width, int height, int period) {
+        BufferedImage image = blank(width, height);
+        int[] pixels = pixelsOf(image);
+        for (int y = 0; y < height; y++) {
+            for (int x = (period - y % period) % period; x < width; x += period) {
+                pixels[y * width + x] = BLACK;
+            }
+        }
+        return image;
+    }
+    // EndRegion: [Internal] Generators
+}